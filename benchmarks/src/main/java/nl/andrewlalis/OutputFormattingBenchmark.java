@@ -0,0 +1,42 @@
+package nl.andrewlalis;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures indenting output text, as done for every piece of output shown in the window or written to a log.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputFormattingBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int lines;
+
+    private String text;
+    private TextOutputSink sink;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        StringBuilder sb = new StringBuilder("Query Result:\n");
+        for (int i = 0; i < this.lines; i++) {
+            sb.append("\t(").append(i).append(", value-").append(i).append(", ").append(i / 3.0).append(")\n");
+        }
+        this.text = sb.toString();
+        this.sink = new TextOutputSink(blackhole::consume);
+        this.sink.indentOutput();
+        this.sink.indentOutput();
+    }
+
+    @Benchmark
+    public void appendOutput() {
+        this.sink.appendOutput(this.text);
+    }
+
+}
@@ -0,0 +1,49 @@
+package nl.andrewlalis.log;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the comparison of two equal execution logs, each made up of a mix of queries and updates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionLogBenchmark {
+
+    @Param({"10", "100"})
+    public int actions;
+
+    @Param({"1000"})
+    public int rows;
+
+    private ExecutionLog mine;
+    private ExecutionLog theirs;
+
+    @Setup
+    public void setup() throws SQLException {
+        this.mine = new ExecutionLog();
+        this.theirs = new ExecutionLog();
+        for (int i = 0; i < this.actions; i++) {
+            if (i % 2 == 0) {
+                Object[][] table = SyntheticResults.table(this.rows, 4, i);
+                this.mine.recordAction(new QueryAction(SyntheticResults.resultSet(table), false));
+                this.theirs.recordAction(new QueryAction(SyntheticResults.resultSet(SyntheticResults.rearrange(table, i)), false));
+            } else {
+                this.mine.recordAction(new UpdateAction(i, "UPDATE t SET x = " + i));
+                this.theirs.recordAction(new UpdateAction(i, "UPDATE t SET x = " + i));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean compare() {
+        return this.mine.equals(this.theirs);
+    }
+
+}
@@ -0,0 +1,53 @@
+package nl.andrewlalis.log;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the comparison of two equal query results, and the reading of a result into a snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryActionBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int rows;
+
+    @Param({"1", "4", "16"})
+    public int columns;
+
+    /**
+     * Whether the queries are ordered. Unordered results are compared with their rows shuffled and columns moved.
+     */
+    @Param({"true", "false"})
+    public boolean ordered;
+
+    private Object[][] table;
+    private QueryAction mine;
+    private QueryAction theirs;
+
+    @Setup
+    public void setup() throws SQLException {
+        this.table = SyntheticResults.table(this.rows, this.columns, 42);
+        Object[][] other = this.ordered ? this.table : SyntheticResults.rearrange(this.table, 7);
+        this.mine = new QueryAction(SyntheticResults.resultSet(this.table), this.ordered);
+        this.theirs = new QueryAction(SyntheticResults.resultSet(other), this.ordered);
+    }
+
+    @Benchmark
+    public boolean compare() {
+        return this.mine.equals(this.theirs);
+    }
+
+    @Benchmark
+    public QueryResult readSnapshot() throws SQLException {
+        return ResultSnapshot.read(SyntheticResults.resultSet(this.table));
+    }
+
+}
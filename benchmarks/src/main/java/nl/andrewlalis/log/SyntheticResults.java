@@ -0,0 +1,146 @@
+package nl.andrewlalis.log;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * Builds in-memory result sets with generated rows, so that query results can be benchmarked without a database.
+ */
+final class SyntheticResults {
+
+    /**
+     * The types of the generated columns, which repeat for tables with more columns.
+     */
+    private static final int[] COLUMN_TYPES = {Types.INTEGER, Types.VARCHAR, Types.DOUBLE, Types.VARCHAR};
+
+    private SyntheticResults() {
+    }
+
+    /**
+     * Generates the values of a table, by row and then by column. Text values repeat somewhat, like real data.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param seed The seed of the generated values.
+     * @return The values.
+     */
+    static Object[][] table(int rows, int columns, long seed) {
+        Random random = new Random(seed);
+        Object[][] table = new Object[rows][columns];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                switch (COLUMN_TYPES[column % COLUMN_TYPES.length]) {
+                    case Types.INTEGER:
+                        table[row][column] = (long) random.nextInt(rows * 4 + 1);
+                        break;
+                    case Types.DOUBLE:
+                        table[row][column] = random.nextInt(100_000) / 100.0;
+                        break;
+                    default:
+                        table[row][column] = random.nextInt(10) == 0 ? null : "value-" + random.nextInt(rows / 2 + 1);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Shuffles the rows of a table, and rotates its columns by one position.
+     * @param table The table to rearrange.
+     * @param seed The seed of the shuffle.
+     * @return A rearranged copy of the table.
+     */
+    static Object[][] rearrange(Object[][] table, long seed) {
+        Random random = new Random(seed);
+        Object[][] copy = new Object[table.length][];
+        for (int row = 0; row < table.length; row++) {
+            Object[] values = table[row];
+            Object[] rotated = new Object[values.length];
+            for (int column = 0; column < values.length; column++) {
+                rotated[(column + 1) % values.length] = values[column];
+            }
+            copy[row] = rotated;
+        }
+        for (int row = copy.length - 1; row > 0; row--) {
+            int other = random.nextInt(row + 1);
+            Object[] values = copy[row];
+            copy[row] = copy[other];
+            copy[other] = values;
+        }
+        return copy;
+    }
+
+    /**
+     * Opens a forward-only result set over a table. Only the methods which are used to read results are supported.
+     * @param table The table, as generated by {@link #table(int, int, long)} and possibly rearranged.
+     * @return The result set.
+     */
+    static ResultSet resultSet(Object[][] table) {
+        int columns = table.length == 0 ? 0 : table[0].length;
+        int[] types = new int[columns];
+        for (int column = 0; column < columns; column++) {
+            types[column] = typeOf(table, column);
+        }
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(SyntheticResults.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return columns;
+                        case "getColumnName":
+                            return "column_" + args[0];
+                        case "getColumnType":
+                            return types[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int[] row = {-1};
+        boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(SyntheticResults.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMetaData":
+                            return metaData;
+                        case "next":
+                            return ++row[0] < table.length;
+                        case "getLong": {
+                            Object value = table[row[0]][(Integer) args[0] - 1];
+                            wasNull[0] = value == null;
+                            return value == null ? 0L : ((Number) value).longValue();
+                        }
+                        case "getDouble": {
+                            Object value = table[row[0]][(Integer) args[0] - 1];
+                            wasNull[0] = value == null;
+                            return value == null ? 0.0 : ((Number) value).doubleValue();
+                        }
+                        case "getString": {
+                            Object value = table[row[0]][(Integer) args[0] - 1];
+                            wasNull[0] = value == null;
+                            return value == null ? null : String.valueOf(value);
+                        }
+                        case "wasNull":
+                            return wasNull[0];
+                        case "close":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static int typeOf(Object[][] table, int column) {
+        for (Object[] values : table) {
+            if (values[column] instanceof Long) {
+                return Types.INTEGER;
+            } else if (values[column] instanceof Double) {
+                return Types.DOUBLE;
+            } else if (values[column] instanceof String) {
+                return Types.VARCHAR;
+            }
+        }
+        return Types.VARCHAR;
+    }
+
+}
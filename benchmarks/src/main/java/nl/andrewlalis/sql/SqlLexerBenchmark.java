@@ -0,0 +1,55 @@
+package nl.andrewlalis.sql;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting a large script into classified statements.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlLexerBenchmark {
+
+    @Param({"1000", "100000"})
+    public int statements;
+
+    private String script;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.statements; i++) {
+            switch (i % 5) {
+                case 0:
+                    sb.append("-- Row ").append(i).append('\n');
+                    sb.append("INSERT INTO student (id, name) VALUES (").append(i).append(", 'Student; ").append(i).append("');\n");
+                    break;
+                case 1:
+                    sb.append("SELECT s.name, COUNT(*) FROM student s JOIN grade g ON g.student_id = s.id ")
+                            .append("WHERE g.value > ").append(i % 10).append(" GROUP BY s.name ORDER BY s.name;\n");
+                    break;
+                case 2:
+                    sb.append("UPDATE grade SET value = value + 1 WHERE id IN (SELECT id FROM grade WHERE value < 5);\n");
+                    break;
+                case 3:
+                    sb.append("/* A block comment; with a semicolon */ CREATE TABLE t").append(i).append(" (id INT PRIMARY KEY);\n");
+                    break;
+                default:
+                    sb.append("CREATE FUNCTION f").append(i).append("() RETURNS INT AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql;\n");
+            }
+        }
+        this.script = sb.toString();
+    }
+
+    @Benchmark
+    public List<SqlStatement> split() {
+        return SqlLexer.split(this.script);
+    }
+
+}
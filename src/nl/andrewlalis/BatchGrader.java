@@ -0,0 +1,358 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionLog;
+import nl.andrewlalis.log.LogStore;
+import nl.andrewlalis.log.PerformanceVerdict;
+import nl.andrewlalis.util.FileLoader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.andrewlalis.Window.DB_TEMPLATE;
+import static nl.andrewlalis.Window.DB_TESTING;
+
+/**
+ * Grades a whole directory of submissions against one template, using a bounded pool of worker threads. Each worker
+ * owns its own pair of databases on each server, so that workers never interfere with each other. When there are
+ * several servers, each submission is graded on the server chosen by a {@link ServerScheduler}.
+ */
+class BatchGrader {
+
+    /**
+     * The key under which the template's log is kept in a log store.
+     */
+    static final String STORED_TEMPLATE_KEY = "template";
+
+    /**
+     * The prefix of the keys under which submissions' logs are kept in a log store, in front of the submission's name.
+     * Names of submissions may be anything, but this way none of them can be mistaken for the template.
+     */
+    static final String STORED_SUBMISSION_PREFIX = "submission:";
+
+    private final ServerScheduler scheduler;
+    private final int threads;
+    private final File logDirectory;
+    private final IsolationMode isolationMode;
+    private boolean streamResults;
+    private boolean compareEndState;
+    private double maxCostRatio;
+    private ResourceLimits resourceLimits = ResourceLimits.DEFAULT;
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    private final TemplateCache templateCache = new TemplateCache(TemplateCache.defaultDirectory());
+    private final Metrics metrics = new Metrics();
+    private ResultMemo resultMemo = new ResultMemo(ResultMemo.DEFAULT_MAX_ENTRIES);
+    private LogStore logStore;
+    private final AtomicBoolean templateStored = new AtomicBoolean();
+
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Worker> currentWorker = ThreadLocal.withInitial(this::createWorker);
+
+    /**
+     * @param backends The database backends of the servers on which submissions are graded.
+     * @param threads The maximum number of submissions to grade at the same time.
+     * @param logDirectory The directory in which to write each submission's output, or null if it should be discarded.
+     * @param isolationMode How each worker's template and testing SQL are kept apart.
+     */
+    BatchGrader(List<DatabaseBackend> backends, int threads, File logDirectory, IsolationMode isolationMode) {
+        this.scheduler = new ServerScheduler(backends);
+        this.threads = threads;
+        this.logDirectory = logDirectory;
+        this.isolationMode = isolationMode;
+    }
+
+    /**
+     * Sets whether query results are streamed to disk instead of being kept in memory.
+     */
+    void setStreamResults(boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
+    /**
+     * Sets whether updates are judged by the end state of the tables, instead of one by one.
+     */
+    void setCompareEndState(boolean compareEndState) {
+        this.compareEndState = compareEndState;
+    }
+
+    /**
+     * Sets whether the cost of each query is compared with the template's, and by which factor it may be higher.
+     * @param maxCostRatio The factor by which the cost of a query may exceed the template's, or 0 to not compare costs.
+     */
+    void setMaxCostRatio(double maxCostRatio) {
+        this.maxCostRatio = maxCostRatio;
+    }
+
+    /**
+     * Sets how many results of read-only queries are remembered and shared between submissions.
+     * @param maxEntries The maximum number of results, or 0 to run every query of every submission.
+     */
+    void setMemoSize(int maxEntries) {
+        this.resultMemo = maxEntries > 0 ? new ResultMemo(maxEntries) : null;
+    }
+
+    /**
+     * Sets the store in which the execution logs of the template and of each submission are kept, so that they can be
+     * compared again later without a database.
+     * @param logStore The store, or null if logs should not be kept.
+     */
+    void setLogStore(LogStore logStore) {
+        this.logStore = logStore;
+    }
+
+    /**
+     * Sets the limits on the time, rows and memory which each submission's statements may use.
+     */
+    void setResourceLimits(ResourceLimits resourceLimits) {
+        this.resourceLimits = resourceLimits;
+    }
+
+    /**
+     * @return The servers on which submissions are graded, and the work done on each.
+     */
+    List<ServerScheduler.Server> getServers() {
+        return this.scheduler.getServers();
+    }
+
+    /**
+     * @return The metrics recorded by all workers.
+     */
+    Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Grades every SQL file in the given directory.
+     * @param initializationSQL The SQL which is run on both databases before each comparison.
+     * @param templateSQL The SQL which is known to be correct.
+     * @param submissionDirectory The directory containing one SQL file per submission.
+     * @return The results of grading, in the order of the submission file names.
+     * @throws IOException If the submission directory could not be read.
+     */
+    List<GradingResult> grade(CharSequence initializationSQL, CharSequence templateSQL, File submissionDirectory) throws IOException {
+        File[] files = submissionDirectory.listFiles((dir, name) -> name.toLowerCase().endsWith(".sql"));
+        if (files == null) {
+            throw new IOException("Could not list submissions in " + submissionDirectory);
+        }
+        Arrays.sort(files);
+        if (this.logDirectory != null && !this.logDirectory.isDirectory() && !this.logDirectory.mkdirs()) {
+            throw new IOException("Could not create log directory " + this.logDirectory);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        List<Future<GradingResult>> futures = new ArrayList<>(files.length);
+        AtomicInteger completed = new AtomicInteger();
+        for (File file : files) {
+            futures.add(executor.submit(() -> {
+                GradingResult result = this.gradeSubmission(initializationSQL, templateSQL, file);
+                System.out.printf("[%d/%d] %s: %s (%d ms)%n", completed.incrementAndGet(), files.length,
+                        result.getSubmission(), result.getStatus(), result.getDurationMillis());
+                return result;
+            }));
+        }
+
+        List<GradingResult> results = new ArrayList<>(files.length);
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new GradingResult(files[i].getName(), GradingResult.Status.ERROR, 0, String.valueOf(e.getCause())));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            throw new IOException("Interrupted while grading submissions.", e);
+        }
+        executor.shutdown();
+        this.close();
+        return results;
+    }
+
+    /**
+     * Drops the databases which were used by each worker, and closes all connections. The grader may not be used
+     * afterwards.
+     */
+    void close() {
+        for (Worker worker : this.workers) {
+            for (DatabaseHelper helper : worker.helpers.values()) {
+                helper.dropDatabases();
+            }
+        }
+        this.connectionPool.close();
+    }
+
+    /**
+     * Grades a single submission file, and writes its output to the log directory, if there is one.
+     */
+    private GradingResult gradeSubmission(CharSequence initializationSQL, CharSequence templateSQL, File file) {
+        GradingResult result = this.gradeSQL(file.getName(), initializationSQL, templateSQL, FileLoader.readFile(file));
+        String log = this.drainOutput();
+        if (this.logDirectory != null) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(new File(this.logDirectory, file.getName() + ".log")))) {
+                writer.print(log);
+            } catch (IOException e) {
+                System.err.println("Could not write log for " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Grades a single submission in the calling thread, using the databases and connections which the thread's worker
+     * kept from earlier submissions. If the server fails while grading, the submission is graded again on another
+     * server, until no server is left to try. The output of grading is kept until {@link #drainOutput()} is called.
+     * @param name The name of the submission.
+     * @param initializationSQL The SQL which is run on both databases before the comparison.
+     * @param templateSQL The SQL which is known to be correct.
+     * @param testingSQL The submitted SQL.
+     * @return The result of grading.
+     */
+    GradingResult gradeSQL(String name, CharSequence initializationSQL, CharSequence templateSQL, CharSequence testingSQL) {
+        Worker worker = this.currentWorker.get();
+        long start = System.nanoTime();
+        Set<ServerScheduler.Server> failedServers = new HashSet<>();
+        GradingResult result = null;
+        while (result == null) {
+            ServerScheduler.Server server = this.scheduler.acquire(failedServers);
+            if (server == null) {
+                result = new GradingResult(name, GradingResult.Status.ERROR, elapsedMillis(start),
+                        "No database server could grade the submission.");
+                break;
+            }
+            long attemptStart = System.nanoTime();
+            SQLException serverFailure = null;
+            try {
+                DatabaseHelper helper = worker.helperFor(server);
+                boolean passed = helper.compareSQL(initializationSQL, templateSQL, testingSQL);
+                serverFailure = helper.getServerFailure();
+                if (serverFailure == null) {
+                    ExecutionLog testingLog = worker.output.getTestingLog();
+                    PerformanceVerdict verdict = testingLog != null ? testingLog.getPerformanceVerdict() : null;
+                    result = new GradingResult(name, passed ? GradingResult.Status.PASSED : GradingResult.Status.FAILED,
+                            elapsedMillis(start), null,
+                            verdict != null && verdict.getComparedCount() > 0 ? verdict.isAcceptable() : null);
+                    this.storeLogs(name, worker.output);
+                }
+            } catch (RuntimeException e) {
+                result = new GradingResult(name, GradingResult.Status.ERROR, elapsedMillis(start), e.toString());
+            } finally {
+                worker.output.releaseLogs();
+                this.scheduler.release(server, System.nanoTime() - attemptStart, serverFailure != null);
+            }
+            if (serverFailure != null) {
+                failedServers.add(server);
+                worker.output.openSink(Window.OUTPUT_GENERAL).appendOutput("Database server " + server + " failed: "
+                        + serverFailure.getMessage() + "\nThe submission is graded again on another server, if any.");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes and returns the output which the calling thread's worker has collected so far.
+     */
+    String drainOutput() {
+        return this.currentWorker.get().output.drain();
+    }
+
+    /**
+     * Keeps the logs of a submission's comparison in the log store, if there is one. The template's log is only kept
+     * once, since it is the same for every submission.
+     */
+    private void storeLogs(String submission, BufferedOutput output) {
+        if (this.logStore == null || output.getTestingLog() == null) {
+            return;
+        }
+        try {
+            if (this.templateStored.compareAndSet(false, true)) {
+                this.logStore.append(STORED_TEMPLATE_KEY, output.getTemplateLog());
+            }
+            this.logStore.append(STORED_SUBMISSION_PREFIX + submission, output.getTestingLog());
+        } catch (IOException e) {
+            output.openSink(Window.OUTPUT_GENERAL).appendOutput("Could not store the logs of " + submission + ": " + e.getMessage());
+        }
+    }
+
+    private Worker createWorker() {
+        Worker worker = new Worker(this.workerCount.incrementAndGet(), new BufferedOutput());
+        this.workers.add(worker);
+        return worker;
+    }
+
+    /**
+     * Creates a helper with which a worker grades submissions on one server.
+     */
+    private DatabaseHelper createHelper(Worker worker, DatabaseBackend backend) {
+        DatabaseHelper helper = new DatabaseHelper(backend, worker.output, this.connectionPool,
+                DB_TEMPLATE + "_" + worker.id, DB_TESTING + "_" + worker.id);
+        helper.setIsolationMode(this.isolationMode);
+        helper.setStreamResults(this.streamResults);
+        helper.setCompareEndState(this.compareEndState);
+        helper.setMaxCostRatio(this.maxCostRatio);
+        helper.setTemplateCache(this.templateCache);
+        helper.setMetrics(this.metrics);
+        helper.setResultMemo(this.resultMemo);
+        helper.setResourceLimits(this.resourceLimits);
+        return helper;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Writes a summary of results to a file. If the file name ends in ".json", a JSON document is written, otherwise
+     * CSV is written.
+     * @param results The results to summarize.
+     * @param totalMillis The wall-clock duration of the whole run.
+     * @param file The file to write to.
+     * @throws IOException If the file could not be written.
+     */
+    static void writeSummary(List<GradingResult> results, long totalMillis, File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            if (file.getName().toLowerCase().endsWith(".json")) {
+                long passed = results.stream().filter(r -> r.getStatus() == GradingResult.Status.PASSED).count();
+                writer.println("{");
+                writer.println("  \"submissions\": " + results.size() + ",");
+                writer.println("  \"passed\": " + passed + ",");
+                writer.println("  \"totalMs\": " + totalMillis + ",");
+                writer.println("  \"results\": [");
+                for (int i = 0; i < results.size(); i++) {
+                    writer.println("    " + results.get(i).toJson() + (i < results.size() - 1 ? "," : ""));
+                }
+                writer.println("  ]");
+                writer.println("}");
+            } else {
+                writer.println(GradingResult.csvHeader());
+                for (GradingResult result : results) {
+                    writer.println(result.toCsv());
+                }
+            }
+        }
+    }
+
+    private class Worker {
+        private final int id;
+        private final BufferedOutput output;
+        private final Map<ServerScheduler.Server, DatabaseHelper> helpers = new HashMap<>();
+
+        private Worker(int id, BufferedOutput output) {
+            this.id = id;
+            this.output = output;
+        }
+
+        private DatabaseHelper helperFor(ServerScheduler.Server server) {
+            return this.helpers.computeIfAbsent(server, s -> createHelper(this, s.getBackend()));
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.LogStore;
+import nl.andrewlalis.sql.MappedScript;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless entry point which grades a whole directory of submissions at once, or which keeps running to grade
+ * submissions which are sent to it over HTTP.
+ */
+public class BatchMain {
+
+    private static final String USAGE = "Usage: BatchMain [options] <initialization.sql> <template.sql> <submission directory>\n" +
+            "       BatchMain [options] --listen <port> <initialization.sql> <template.sql>\n" +
+            "Options:\n" +
+            "\t--backend <backend>    'postgresql' to use a PostgreSQL server (default), or 'h2' to use in-memory\n" +
+            "\t                       databases in this process, for exercises which only use standard SQL\n" +
+            "\t--host <host>          Database host (default localhost)\n" +
+            "\t--port <port>          Database port (default 5432)\n" +
+            "\t--server <host:port>   A PostgreSQL server to grade on; may be given several times to spread\n" +
+            "\t                       submissions over several servers (default the host and port above)\n" +
+            "\t--user <user>          Database user (default the current user)\n" +
+            "\t--password <password>  Database password (default empty)\n" +
+            "\t--threads <n>          Number of submissions graded at once (default the number of processors)\n" +
+            "\t--listen <port>        Keep running, and grade submissions which are posted to\n" +
+            "\t                       http://localhost:<port>/grade instead of a submission directory\n" +
+            "\t--queue <n>            Number of posted submissions which may wait to be graded, before more are\n" +
+            "\t                       turned away (default 100)\n" +
+            "\t--summary <file>       Summary file; JSON if it ends in .json, otherwise CSV (default summary.csv)\n" +
+            "\t--logs <directory>     Directory in which to write each submission's output\n" +
+            "\t--store <directory>    Log store in which to keep the results of the template and each submission,\n" +
+            "\t                       so that they can be compared again later with RegradeMain\n" +
+            "\t--isolation <mode>     'database' to give each side its own database (default), or 'schema' to give\n" +
+            "\t                       each side its own schema inside one shared database\n" +
+            "\t--stream               Stream query results to disk, to grade very large results in constant memory\n" +
+            "\t--end-state            Judge updates by the end state of all tables, instead of one by one\n" +
+            "\t--cost-ratio <factor>  Also compare the cost of each query with the template's, and judge a\n" +
+            "\t                       submission too slow if a query is more than <factor> times as costly\n" +
+            "\t--memo-size <n>        Number of read-only query results shared between submissions (default 1000,\n" +
+            "\t                       0 for none)\n" +
+            "\t--timeout <seconds>    Time after which a submission's statement is cancelled (default 30, 0 for none)\n" +
+            "\t--max-rows <n>         Maximum number of rows kept from a single result (default 1000000, 0 for none)\n" +
+            "\t--work-mem <amount>    Memory each query operation may use on the server (default 64MB)\n" +
+            "\t--metrics <file>       Write timings and counts of the run; JSON if it ends in .json, otherwise CSV";
+
+    public static void main(String[] args) {
+        String host = "localhost";
+        int port = 5432;
+        String user = System.getProperty("user.name");
+        String password = "";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int listenPort = -1;
+        int queueSize = 100;
+        File summary = new File("summary.csv");
+        File logs = null;
+        File store = null;
+        File metrics = null;
+        int timeoutSeconds = ResourceLimits.DEFAULT.getTimeoutSeconds();
+        int maxRows = ResourceLimits.DEFAULT.getMaxRows();
+        String workMem = ResourceLimits.DEFAULT.getWorkMem();
+        IsolationMode isolationMode = IsolationMode.DATABASE;
+        String backendName = "postgresql";
+        boolean streamResults = false;
+        boolean compareEndState = false;
+        double maxCostRatio = 0;
+        int memoSize = ResultMemo.DEFAULT_MAX_ENTRIES;
+        List<String> servers = new ArrayList<>();
+        List<String> positional = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--server":
+                        servers.add(args[++i]);
+                        break;
+                    case "--user":
+                        user = args[++i];
+                        break;
+                    case "--password":
+                        password = args[++i];
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--listen":
+                        listenPort = Integer.parseInt(args[++i]);
+                        break;
+                    case "--queue":
+                        queueSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--summary":
+                        summary = new File(args[++i]);
+                        break;
+                    case "--logs":
+                        logs = new File(args[++i]);
+                        break;
+                    case "--store":
+                        store = new File(args[++i]);
+                        break;
+                    case "--timeout":
+                        timeoutSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-rows":
+                        maxRows = Integer.parseInt(args[++i]);
+                        break;
+                    case "--work-mem":
+                        workMem = args[++i];
+                        break;
+                    case "--metrics":
+                        metrics = new File(args[++i]);
+                        break;
+                    case "--stream":
+                        streamResults = true;
+                        break;
+                    case "--memo-size":
+                        memoSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--cost-ratio":
+                        maxCostRatio = Double.parseDouble(args[++i]);
+                        break;
+                    case "--end-state":
+                        compareEndState = true;
+                        break;
+                    case "--backend":
+                        backendName = args[++i].toLowerCase();
+                        break;
+                    case "--isolation":
+                        isolationMode = IsolationMode.valueOf(args[++i].toUpperCase());
+                        break;
+                    default:
+                        positional.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        if (positional.size() != (listenPort < 0 ? 3 : 2) || threads < 1 || queueSize < 0 || maxCostRatio < 0 || !(backendName.equals("postgresql") || backendName.equals("h2"))) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        List<DatabaseBackend> backends = new ArrayList<>();
+        if (backendName.equals("h2")) {
+            if (!servers.isEmpty()) {
+                System.err.println("Servers can only be given for the postgresql backend.");
+                System.exit(1);
+            }
+            backends.add(new InMemoryBackend());
+        } else if (servers.isEmpty()) {
+            backends.add(new PostgresBackend(host, port, user, password));
+        } else {
+            for (String server : servers) {
+                int separator = server.lastIndexOf(':');
+                try {
+                    backends.add(separator < 0 ? new PostgresBackend(server, port, user, password)
+                            : new PostgresBackend(server.substring(0, separator), Integer.parseInt(server.substring(separator + 1)), user, password));
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid server: " + server);
+                    System.exit(1);
+                }
+            }
+        }
+        if (isolationMode == IsolationMode.SCHEMA && !backends.get(0).supportsSchemas()) {
+            System.err.println("Schema isolation is not supported by the " + backendName + " backend.");
+            System.exit(1);
+        }
+
+        // The scripts are mapped into memory instead of read, since the initialization is often a large data dump.
+        CharSequence initializationSQL;
+        CharSequence templateSQL;
+        try {
+            initializationSQL = MappedScript.open(new File(positional.get(0)));
+            templateSQL = MappedScript.open(new File(positional.get(1)));
+        } catch (IOException e) {
+            System.err.println("Could not open script: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        BatchGrader grader = new BatchGrader(backends, threads, logs, isolationMode);
+        grader.setStreamResults(streamResults);
+        grader.setCompareEndState(compareEndState);
+        grader.setMaxCostRatio(maxCostRatio);
+        grader.setMemoSize(memoSize);
+        try {
+            grader.setResourceLimits(new ResourceLimits(timeoutSeconds, maxRows, workMem));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        if (listenPort >= 0) {
+            serve(grader, initializationSQL, templateSQL, threads, queueSize, listenPort, store);
+            return;
+        }
+        File submissionDirectory = new File(positional.get(2));
+        try (LogStore logStore = store != null ? LogStore.open(store) : null) {
+            grader.setLogStore(logStore);
+            long start = System.currentTimeMillis();
+            List<GradingResult> results = grader.grade(initializationSQL, templateSQL, submissionDirectory);
+            long totalMillis = System.currentTimeMillis() - start;
+            BatchGrader.writeSummary(results, totalMillis, summary);
+            if (metrics != null) {
+                grader.getMetrics().write(metrics);
+            }
+            long passed = results.stream().filter(r -> r.getStatus() == GradingResult.Status.PASSED).count();
+            System.out.printf("Graded %d submissions in %d ms; %d passed. Summary written to %s%n",
+                    results.size(), totalMillis, passed, summary);
+            if (backends.size() > 1) {
+                for (ServerScheduler.Server server : grader.getServers()) {
+                    System.out.println(server.describe());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Batch grading failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Grades submissions which are posted over HTTP, until the process is stopped.
+     */
+    private static void serve(BatchGrader grader, CharSequence initializationSQL, CharSequence templateSQL, int threads,
+                              int queueSize, int port, File store) {
+        try {
+            LogStore logStore = store != null ? LogStore.open(store) : null;
+            grader.setLogStore(logStore);
+            GradingService service = new GradingService(grader, initializationSQL, templateSQL, threads, queueSize);
+            service.start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                service.stop();
+                if (logStore != null) {
+                    try {
+                        logStore.close();
+                    } catch (IOException e) {
+                        System.err.println("Could not close the log store: " + e.getMessage());
+                    }
+                }
+            }));
+            System.out.printf("Grading submissions posted to http://localhost:%d/grade with %d workers.%n", port, threads);
+        } catch (IOException e) {
+            System.err.println("Could not start the grading service: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+}
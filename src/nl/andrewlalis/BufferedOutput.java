@@ -0,0 +1,87 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionLog;
+
+/**
+ * An output handler which collects all output in memory, for use when no user interface is available. The output of
+ * each channel is collected separately, so that sides of a comparison which run at the same time are not mixed.
+ */
+class BufferedOutput implements OutputHandler {
+
+    private static final String[] CHANNEL_HEADERS = {"", "=== Template ===\n", "=== Testing ===\n"};
+
+    private final StringBuilder[] buffers = {new StringBuilder(), new StringBuilder(), new StringBuilder()};
+
+    /**
+     * The logs of the last comparison, which are kept until they are released.
+     */
+    private ExecutionLog templateLog;
+    private ExecutionLog testingLog;
+
+    @Override
+    public OutputSink openSink(int channel) {
+        StringBuilder buffer = this.buffers[channel];
+        return new TextOutputSink(text -> {
+            synchronized (buffer) {
+                buffer.append(text);
+            }
+        });
+    }
+
+    /**
+     * Keeps the logs of a comparison, so that they can be looked at once it has finished. The logs of any earlier
+     * comparison are released.
+     */
+    @Override
+    public synchronized void publishLogs(ExecutionLog templateLog, ExecutionLog testingLog) {
+        this.releaseLogs();
+        this.templateLog = templateLog;
+        this.testingLog = testingLog;
+    }
+
+    /**
+     * @return The template log of the last comparison, or null if it has been released.
+     */
+    synchronized ExecutionLog getTemplateLog() {
+        return this.templateLog;
+    }
+
+    /**
+     * @return The testing log of the last comparison, or null if it has been released.
+     */
+    synchronized ExecutionLog getTestingLog() {
+        return this.testingLog;
+    }
+
+    /**
+     * Releases the logs of the last comparison, if they have not been released yet.
+     */
+    synchronized void releaseLogs() {
+        if (this.templateLog != null) {
+            this.templateLog.release();
+            this.testingLog.release();
+        }
+        this.templateLog = null;
+        this.testingLog = null;
+    }
+
+    /**
+     * Removes and returns everything which has been written so far, with the output of each channel one after the
+     * other.
+     * @return The collected output.
+     */
+    String drain() {
+        StringBuilder result = new StringBuilder();
+        for (int channel = 0; channel < this.buffers.length; channel++) {
+            StringBuilder buffer = this.buffers[channel];
+            synchronized (buffer) {
+                if (buffer.length() > 0) {
+                    result.append(CHANNEL_HEADERS[channel]).append(buffer);
+                    buffer.setLength(0);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,224 @@
+package nl.andrewlalis;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of database connections, keyed by the JDBC URL of the database they connect to. Connections which
+ * are released are kept open for a while, so that the next statements run on the same database do not need to
+ * connect and authenticate again.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    /**
+     * The maximum number of idle connections kept for any one database.
+     */
+    private static final int MAX_IDLE_PER_DATABASE = 4;
+
+    /**
+     * Connections which have been idle for longer than this are validated before they're handed out again.
+     */
+    private static final long VALIDATION_INTERVAL_MILLIS = 5000;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    private final long idleTimeoutMillis;
+    private final Map<String, Deque<IdleConnection>> idleConnections = new HashMap<>();
+    /**
+     * The SQL with which connections to some databases are reset when they're released, by the JDBC URL of the database.
+     */
+    private final Map<String, String> resetSQL = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictionExecutor;
+
+    ConnectionPool() {
+        this(60_000);
+    }
+
+    /**
+     * @param idleTimeoutMillis The time after which an unused connection is closed.
+     */
+    ConnectionPool(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-eviction");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictionExecutor.scheduleAtFixedRate(this::closeIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets a connection to the given URL, reusing an idle one if possible. It must be given back with
+     * {@link #release(String, Connection)} once it is no longer needed.
+     * @param url The JDBC URL to connect to.
+     * @return A valid connection.
+     * @throws SQLException If no connection could be made.
+     */
+    Connection getConnection(String url) throws SQLException {
+        while (true) {
+            IdleConnection idle;
+            synchronized (this) {
+                Deque<IdleConnection> connections = this.idleConnections.get(url);
+                idle = connections == null ? null : connections.pollFirst();
+            }
+            if (idle == null) {
+                break;
+            }
+            long idleMillis = System.currentTimeMillis() - idle.releasedAt;
+            if (idleMillis < VALIDATION_INTERVAL_MILLIS || isValid(idle.connection)) {
+                return idle.connection;
+            }
+            closeQuietly(idle.connection);
+        }
+
+        Connection connection = DriverManager.getConnection(url);
+        if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+            closeQuietly(connection);
+            throw new SQLException("Invalid connection.");
+        }
+        return connection;
+    }
+
+    /**
+     * Makes connections to a database be reset whenever they are released, so that nothing which one user of a
+     * connection left behind in its session, such as temporary tables, settings or an open transaction, is seen by
+     * the next user. Connections which cannot be reset are closed instead of being reused.
+     * @param url The JDBC URL of the database.
+     * @param sql The SQL which resets a session.
+     */
+    void resetOnRelease(String url, String sql) {
+        this.resetSQL.put(url, sql);
+    }
+
+    /**
+     * Gives back a connection obtained from {@link #getConnection(String)}, so that it may be reused.
+     * @param url The JDBC URL which the connection was obtained for.
+     * @param connection The connection.
+     */
+    void release(String url, Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            String reset = this.resetSQL.get(url);
+            if (reset != null) {
+                // A transaction may also have been begun with SQL while in auto-commit mode, and must be ended before the
+                // session can be reset.
+                try (Statement st = connection.createStatement()) {
+                    st.execute("ROLLBACK");
+                    st.execute(reset);
+                }
+            }
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            return;
+        }
+
+        Connection overflow = null;
+        synchronized (this) {
+            Deque<IdleConnection> connections = this.idleConnections.computeIfAbsent(url, k -> new ArrayDeque<>());
+            connections.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+            if (connections.size() > MAX_IDLE_PER_DATABASE) {
+                overflow = connections.pollLast().connection;
+            }
+        }
+        if (overflow != null) {
+            closeQuietly(overflow);
+        }
+    }
+
+    /**
+     * Closes all idle connections to a database. This must be done before the database is dropped or renamed, since
+     * the server refuses to do so while there are open connections to it.
+     * @param url The JDBC URL of the database.
+     */
+    void evict(String url) {
+        Deque<IdleConnection> connections;
+        synchronized (this) {
+            connections = this.idleConnections.remove(url);
+        }
+        if (connections != null) {
+            for (IdleConnection idle : connections) {
+                closeQuietly(idle.connection);
+            }
+        }
+    }
+
+    /**
+     * Closes all connections which have been idle for longer than the idle timeout.
+     */
+    private void closeIdleConnections() {
+        long cutoff = System.currentTimeMillis() - this.idleTimeoutMillis;
+        List<Connection> expired = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Deque<IdleConnection>> iterator = this.idleConnections.values().iterator();
+            while (iterator.hasNext()) {
+                Deque<IdleConnection> connections = iterator.next();
+                // The oldest connections are always at the end of the deque.
+                while (!connections.isEmpty() && connections.peekLast().releasedAt < cutoff) {
+                    expired.add(connections.pollLast().connection);
+                }
+                if (connections.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        for (Connection connection : expired) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Closes all idle connections, and stops evicting connections in the background.
+     */
+    @Override
+    public void close() {
+        this.evictionExecutor.shutdownNow();
+        List<String> urls;
+        synchronized (this) {
+            urls = new ArrayList<>(this.idleConnections.keySet());
+        }
+        for (String url : urls) {
+            this.evict(url);
+        }
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // The connection is being discarded anyway.
+        }
+    }
+
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long releasedAt;
+
+        private IdleConnection(Connection connection, long releasedAt) {
+            this.connection = connection;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+}
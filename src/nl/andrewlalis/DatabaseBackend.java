@@ -0,0 +1,98 @@
+package nl.andrewlalis;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A kind of database engine on which the isolated databases of comparisons are provisioned, used and torn down.
+ */
+interface DatabaseBackend {
+
+    /**
+     * @return An identifier of the server, such as its host and port. Helpers for the same server share fixtures.
+     */
+    String getServerId();
+
+    /**
+     * @param database The name of the database, or an empty string for the engine's default database.
+     * @return The JDBC URL with which to connect to the database.
+     */
+    String getUrl(String database);
+
+    /**
+     * @return Whether databases can be created as copies of a fixture database, on which initialization SQL was run
+     * beforehand.
+     */
+    boolean supportsFixtures();
+
+    /**
+     * @return Whether comparisons can be isolated in schemas of one shared database.
+     */
+    boolean supportsSchemas();
+
+    /**
+     * @return Whether schema changes are part of transactions, so that any statement can be undone by rolling back to a
+     * savepoint before it.
+     */
+    boolean supportsTransactionalDDL();
+
+    /**
+     * @param database The name of a database which is to be created or dropped.
+     * @return The name of the database on which the SQL for creating or dropping it is run.
+     */
+    String getAdministrationDatabase(String database);
+
+    /**
+     * @param database The name of the database.
+     * @param fixture The fixture database to copy, or null for an empty database.
+     * @return The SQL which replaces a database with an empty one, or with a copy of a fixture.
+     */
+    String getRecreateSQL(String database, String fixture);
+
+    /**
+     * @param database The name of the database.
+     * @return The SQL which drops a database if it exists.
+     */
+    String getDropSQL(String database);
+
+    /**
+     * Gets the SQL which computes a digest of all rows of a table on the server, so that the rows themselves do not
+     * need to be fetched. The digest must not depend on the order of the rows.
+     * @param table The quoted name of the table.
+     * @return The SQL, which returns the digest as a single text value, or null if the rows must be fetched and
+     * digested by the application instead.
+     */
+    String getTableDigestSQL(String table);
+
+    /**
+     * Gets the SQL which runs a query and describes its plan, together with the estimated and actual cost of each part
+     * of the plan, as JSON.
+     * @param query The query.
+     * @return The SQL, which returns the plan as a single text value, or null if the database cannot measure the cost
+     * of queries.
+     */
+    String getExplainSQL(String query);
+
+    /**
+     * Gets the SQL which restores everything about a connection's session to the defaults, including settings and
+     * temporary tables, as if it had just connected. It is run as a single statement, outside of any transaction.
+     * @return The SQL, or null if the database cannot reset sessions.
+     */
+    String getResetSessionSQL();
+
+    /**
+     * Applies limits to the session of a statement's connection, until they are reset.
+     * @param statement The statement.
+     * @param limits The limits to apply.
+     * @throws SQLException If the limits could not be applied.
+     */
+    void applySessionLimits(Statement statement, ResourceLimits limits) throws SQLException;
+
+    /**
+     * Restores the session of a statement's connection to the defaults, after limits were applied.
+     * @param statement The statement.
+     * @throws SQLException If the session could not be reset.
+     */
+    void resetSessionLimits(Statement statement) throws SQLException;
+
+}
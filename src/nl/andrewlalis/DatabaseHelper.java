@@ -2,130 +2,1059 @@ package nl.andrewlalis;
 
 import nl.andrewlalis.log.ExecutionAction;
 import nl.andrewlalis.log.ExecutionLog;
+import nl.andrewlalis.log.PerformanceVerdict;
 import nl.andrewlalis.log.QueryAction;
+import nl.andrewlalis.log.QueryCost;
+import nl.andrewlalis.log.QueryResult;
+import nl.andrewlalis.log.SpilledResult;
+import nl.andrewlalis.log.TableStateAction;
+import nl.andrewlalis.log.TimedOutAction;
 import nl.andrewlalis.log.UpdateAction;
+import nl.andrewlalis.sql.SqlLexer;
+import nl.andrewlalis.sql.SqlStatement;
+import nl.andrewlalis.sql.StatementKind;
+import nl.andrewlalis.util.Hashes;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static nl.andrewlalis.Window.*;
 
 class DatabaseHelper {
 
-    private String host;
-    private int port;
-    private String user;
-    private String password;
-    private Window window;
+    /**
+     * Runs the testing side of comparisons, while the calling thread runs the template side.
+     */
+    private static final ExecutorService SIDE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "sql-assess-testing-side");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Cancels assessed statements which have run for longer than the resource limits allow.
+     */
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sql-assess-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The SQL state with which both PostgreSQL and H2 report a statement that was cancelled, for example because of a
+     * timeout.
+     */
+    private static final String QUERY_CANCELED_STATE = "57014";
+
+    /**
+     * The number of rows fetched from the server at once, when streaming query results.
+     */
+    private static final int STREAMING_FETCH_SIZE = 1000;
+
+    /**
+     * The maximum number of update statements sent to the server in one batch.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Lists the tables of the current schema, whose state is compared when comparing end states.
+     */
+    private static final String LIST_TABLES_SQL = "SELECT table_name FROM information_schema.tables " +
+            "WHERE table_schema = current_schema AND table_type = 'BASE TABLE'";
+
+    /**
+     * The maximum number of rows of a table which are fetched to show how it differs, and the maximum number of
+     * differing rows which are shown.
+     */
+    private static final int MAX_DIFFERENCE_FETCH_ROWS = 100_000;
+    private static final int MAX_DIFFERENCE_SHOWN_ROWS = 10;
+
+    /**
+     * Matches the names of any databases or schemas which are managed by this application.
+     */
+    private static final Pattern MANAGED_NAME = Pattern.compile("\\bsql_assess_\\w+", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The schemas which SQL confined to a schema may name besides its own. They hold the system catalogs and the
+     * session's own temporary tables, which can be reached without naming them anyway.
+     */
+    private static final Set<String> SYSTEM_SCHEMAS = new HashSet<>(Arrays.asList("pg_catalog", "information_schema", "pg_temp"));
+
+    private DatabaseBackend backend;
+    private OutputHandler output;
+    private ConnectionPool connectionPool;
 
-    DatabaseHelper(String host, int port, String user, String password, Window window) {
-        this.host = host;
-        this.port = port;
-        this.user = user;
-        this.password = password;
-        this.window = window;
+    /**
+     * The names of the databases (or schemas, when using schema isolation) on which template and testing SQL is run.
+     */
+    private String templateDatabase;
+    private String testingDatabase;
+    private IsolationMode isolationMode = IsolationMode.DATABASE;
+    /**
+     * The names of all schemas in the shared database, when using schema isolation.
+     */
+    private volatile Set<String> sharedSchemas = Collections.emptySet();
+    private boolean streamResults;
+    private boolean compareEndState;
+    /**
+     * The factor by which the cost of a query may exceed the template's, or 0 if costs are not compared.
+     */
+    private double maxCostRatio;
+    private IncrementalSession incrementalSession;
+    private ResultMemo resultMemo;
+    /**
+     * Identifies the initialization data of the current comparison, for the keys of memoized results.
+     */
+    private String memoScope;
+    private TemplateCache templateCache;
+    private Metrics metrics = new Metrics();
+    private ResourceLimits resourceLimits = ResourceLimits.DEFAULT;
+    private String serverVersion;
+
+    /**
+     * The last error during the current comparison which shows that the database server itself failed, rather than
+     * the SQL being run, or null if there was none.
+     */
+    private volatile SQLException serverFailure;
+
+    DatabaseHelper(DatabaseBackend backend, OutputHandler output, ConnectionPool connectionPool) {
+        this(backend, output, connectionPool, DB_TEMPLATE, DB_TESTING);
+    }
+
+    /**
+     * Constructs a helper which uses its own pair of databases, so that several helpers may run against the same
+     * server at the same time.
+     * @param templateDatabase The name of the database on which template SQL is run.
+     * @param testingDatabase The name of the database on which testing SQL is run.
+     */
+    DatabaseHelper(DatabaseBackend backend, OutputHandler output, ConnectionPool connectionPool, String templateDatabase, String testingDatabase) {
+        this.backend = backend;
+        this.output = output;
+        this.connectionPool = connectionPool;
+        this.templateDatabase = templateDatabase;
+        this.testingDatabase = testingDatabase;
+    }
+
+    /**
+     * Sets how the template and testing sides of a comparison are kept apart.
+     * @param isolationMode The isolation mode.
+     * @throws IllegalArgumentException If the backend does not support the isolation mode.
+     */
+    void setIsolationMode(IsolationMode isolationMode) {
+        if (isolationMode == IsolationMode.SCHEMA && !this.backend.supportsSchemas()) {
+            throw new IllegalArgumentException("Schema isolation is not supported by this database backend.");
+        }
+        if (isolationMode == IsolationMode.SCHEMA) {
+            // Connections to the shared database are used by every submission, so no session state may carry over.
+            this.connectionPool.resetOnRelease(this.getUrl(DB_SHARED), this.backend.getResetSessionSQL());
+        }
+        this.isolationMode = isolationMode;
     }
 
-    void executeSQLComparison(String initializationSQL, String templateSQL, String testingSQL) {
+    /**
+     * Sets whether query results are streamed from the server in chunks and kept on disk, instead of being loaded and
+     * kept in memory all at once. This keeps memory use constant no matter how large results are.
+     */
+    void setStreamResults(boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
+    /**
+     * Sets whether updates are judged by the state of the tables which they leave behind, instead of one by one by
+     * the number of rows they affect. This accepts updates which reach the same result in a different order.
+     * @param compareEndState Whether to compare the end state of tables.
+     */
+    void setCompareEndState(boolean compareEndState) {
+        this.compareEndState = compareEndState;
+    }
+
+    /**
+     * Sets whether the cost of each read-only query is measured and compared with the cost of the template's query,
+     * which gives a performance verdict next to the result of the comparison. Measuring the cost runs each query a
+     * second time.
+     * @param maxCostRatio The factor by which the cost of a query may exceed the template's, or 0 to not compare costs.
+     */
+    void setMaxCostRatio(double maxCostRatio) {
+        this.maxCostRatio = maxCostRatio;
+    }
+
+    /**
+     * Sets the session in which testing SQL is run incrementally, so that statements which are unchanged since the
+     * last comparison are not run again. The session is kept by the caller between comparisons.
+     * @param incrementalSession The session, or null to always run all testing statements.
+     */
+    void setIncrementalSession(IncrementalSession incrementalSession) {
+        this.incrementalSession = incrementalSession;
+    }
+
+    /**
+     * Sets where the results of read-only queries on unmodified initialization data are remembered, so that the same
+     * query is not run again in later comparisons.
+     * @param resultMemo The memo, or null to always run every query.
+     */
+    void setResultMemo(ResultMemo resultMemo) {
+        this.resultMemo = resultMemo;
+    }
+
+    /**
+     * Sets where timings and counts of this helper's work are recorded. Metrics may be shared by several helpers.
+     * @param metrics The metrics to record to.
+     */
+    void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the limits on the time, rows and memory which the assessed statements of both sides may use.
+     * @param resourceLimits The limits.
+     */
+    void setResourceLimits(ResourceLimits resourceLimits) {
+        this.resourceLimits = resourceLimits;
+    }
+
+    /**
+     * Sets the cache in which the results of running template SQL are kept, so that the same template does not need
+     * to be run again for every comparison.
+     * @param templateCache The cache, or null if template SQL should always be run.
+     */
+    void setTemplateCache(TemplateCache templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    void executeSQLComparison(CharSequence initializationSQL, CharSequence templateSQL, CharSequence testingSQL) {
         // Run the database code in a separate thread to update the UI quickly.
-        Thread t = new Thread(() -> {
-            // Setup both databases.
-            this.window.appendOutput("Dropping old databases and re-creating them...");
-            this.window.indentOutput();
-            String dropDatabases = "DROP DATABASE " + DB_TEMPLATE + "; " +
-                    "DROP DATABASE " + DB_TESTING + ";";
-            String createDatabases = "CREATE DATABASE " + DB_TEMPLATE + "; " +
-                    "CREATE DATABASE " + DB_TESTING + ";";
-            this.executeQueries("", dropDatabases, false);
-            this.executeQueries("", createDatabases, false);
-            this.window.unindentOutput();
-
-            // Run initialization script on each database.
-            this.window.appendOutput("Running initialization SQL on databases...");
-            this.window.indentOutput();
-            this.executeQueries(DB_TEMPLATE, initializationSQL, false);
-            this.executeQueries(DB_TESTING, initializationSQL, false);
-            this.window.unindentOutput();
-
-            // TESTING SQL HERE
-
-            // Template-specific output.
-            this.window.setOutputChannel(OUTPUT_TEMPLATE);
-            ExecutionLog templateLog = this.executeQueries(DB_TEMPLATE, templateSQL, true);
-
-            // Testing-specific output.
-            this.window.setOutputChannel(OUTPUT_TESTING);
-            ExecutionLog testingLog = this.executeQueries(DB_TESTING, testingSQL, true);
-
-            // Output results.
-            this.window.setOutputChannel(OUTPUT_GENERAL);
-            this.window.appendOutput("Execution test result: " + templateLog.equals(testingLog));
-        });
+        Thread t = new Thread(() -> this.compareSQL(initializationSQL, templateSQL, testingSQL));
         t.start();
     }
 
-//    private void listDatabases() {
-//        try {
-//            PreparedStatement ps = connection
-//                    .prepareStatement("SELECT datname FROM pg_database WHERE datistemplate = false;");
-//            ResultSet rs = ps.executeQuery();
-//            while (rs.next()) {
-//                System.out.println(rs.getString(1));
-//            }
-//            rs.close();
-//            ps.close();
-//
-//        } catch (Exception e) {
-//            e.printStackTrace();
-//        }
-//    }
+    /**
+     * Runs a full comparison of template and testing SQL in the calling thread. The template and testing sides use
+     * separate databases, so they are prepared and run at the same time.
+     * @param initializationSQL The SQL which is run on both databases beforehand.
+     * @param templateSQL The SQL which is known to be correct.
+     * @param testingSQL The SQL which is to be assessed.
+     * @return True if the testing SQL had the same effect as the template SQL.
+     */
+    boolean compareSQL(CharSequence initializationSQL, CharSequence templateSQL, CharSequence testingSQL) {
+        this.serverFailure = null;
+        OutputSink general = this.output.openSink(OUTPUT_GENERAL);
+        OutputSink templateOutput = this.output.openSink(OUTPUT_TEMPLATE);
+        OutputSink testingOutput = this.output.openSink(OUTPUT_TESTING);
+
+        String cacheKey = null;
+        ExecutionLog cachedTemplateLog = null;
+        if (this.templateCache != null) {
+            String serverVersion = this.getServerVersion(general);
+            if (serverVersion != null) {
+                cacheKey = TemplateCache.key(initializationSQL, templateSQL, serverVersion, this.compareEndState,
+                        this.maxCostRatio > 0, this.resourceLimits, this.isolationMode);
+                cachedTemplateLog = this.templateCache.load(cacheKey);
+            }
+        }
+
+        this.memoScope = null;
+        if (this.resultMemo != null) {
+            String serverVersion = this.getServerVersion(general);
+            if (serverVersion != null) {
+                this.memoScope = Hashes.sha256Hex(this.backend.getServerId(), serverVersion, initializationSQL,
+                        String.valueOf(this.resourceLimits.getMaxRows()));
+            }
+        }
+
+        String fixture = null;
+        if (this.isolationMode == IsolationMode.SCHEMA) {
+            this.prepareSharedDatabase(general);
+        } else if (this.backend.supportsFixtures()) {
+            fixture = this.prepareFixture(initializationSQL, general);
+        }
+        String sourceFixture = fixture;
+
+        CompletableFuture<ExecutionLog> testingFuture = CompletableFuture.supplyAsync(
+                () -> this.runSide(this.testingDatabase, Metrics.PHASE_TESTING, initializationSQL, sourceFixture,
+                        testingSQL, testingOutput),
+                SIDE_EXECUTOR);
+
+        ExecutionLog templateLog = cachedTemplateLog;
+        if (templateLog == null) {
+            templateLog = this.runSide(this.templateDatabase, Metrics.PHASE_TEMPLATE, initializationSQL, fixture,
+                    templateSQL, templateOutput);
+            if (cacheKey != null) {
+                this.templateCache.store(cacheKey, templateLog);
+            }
+        } else {
+            templateOutput.appendOutput("Using cached template results.");
+        }
+        ExecutionLog testingLog = testingFuture.join();
+
+        // Output results.
+        long compareStart = System.nanoTime();
+        int difference = this.resultMemo != null
+                ? templateLog.firstDifference(testingLog, this.resultMemo::actionsEqual)
+                : templateLog.firstDifference(testingLog);
+        this.metrics.recordTime(Metrics.PHASE_COMPARE, compareStart);
+        boolean result = difference == -1;
+        if (!result) {
+            List<ExecutionAction> templateActions = templateLog.getActions();
+            List<ExecutionAction> testingActions = testingLog.getActions();
+            if (difference < templateActions.size() && difference < testingActions.size()
+                    && templateActions.get(difference) instanceof TableStateAction
+                    && testingActions.get(difference) instanceof TableStateAction) {
+                this.reportTableDifferences((TableStateAction) templateActions.get(difference),
+                        (TableStateAction) testingActions.get(difference), cachedTemplateLog == null, general);
+            } else {
+                general.appendOutput("Results first differ at statement " + (difference + 1) + ".");
+            }
+        }
+        general.appendOutput("Execution test result: " + result);
+        if (this.maxCostRatio > 0) {
+            PerformanceVerdict verdict = PerformanceVerdict.compare(templateLog, testingLog, this.maxCostRatio);
+            testingLog.setPerformanceVerdict(verdict);
+            general.appendOutput(verdict.toString());
+        }
+        this.output.publishLogs(templateLog, testingLog);
+        return result;
+    }
 
     /**
-     * Executes possibly many queries which are contained in one string.
-     * @param database The database name to connect to, or an empty string to connect to the user's database.
+     * Prepares one side of a comparison, and then runs its SQL.
+     * @param name The name of the database or schema used by this side.
+     * @param phase The name of the metrics timer for running this side's SQL.
+     * @param initializationSQL The SQL which is run to initialize the database or schema.
+     * @param fixture The fixture database to copy, or null if the initialization SQL must be run.
+     * @param sql The SQL to run.
+     * @param out The sink to write this side's output to.
+     * @return The execution log of the side's SQL.
+     */
+    private ExecutionLog runSide(String name, String phase, CharSequence initializationSQL, String fixture, CharSequence sql, OutputSink out) {
+        if (name.equals(this.testingDatabase) && this.incrementalSession != null) {
+            synchronized (this.incrementalSession) {
+                if (this.canRunIncrementally(sql, out)) {
+                    try {
+                        return this.runSideIncrementally(name, phase, initializationSQL, fixture, sql, out);
+                    } catch (SQLException e) {
+                        out.appendOutput("Could not continue from the last comparison, so all statements are run: " + e.getMessage());
+                    }
+                }
+                this.incrementalSession.close();
+            }
+        }
+        this.prepareSide(name, initializationSQL, fixture, out);
+        long start = System.nanoTime();
+        ExecutionLog log = this.executeIsolated(name, sql, true, out);
+        this.recordTableState(name, log, out);
+        this.metrics.recordTime(phase, start);
+        return log;
+    }
+
+    private void prepareSide(String name, CharSequence initializationSQL, String fixture, OutputSink out) {
+        if (this.isolationMode == IsolationMode.SCHEMA) {
+            this.prepareSchema(name, initializationSQL, out);
+        } else {
+            this.prepareDatabase(name, initializationSQL, fixture, out);
+        }
+    }
+
+    /**
+     * Checks whether testing SQL can be run in the incremental session, whose statements are all undone by rolling
+     * back to savepoints.
+     * @param sql The testing SQL.
+     * @param out The sink to write output to.
+     * @return True if the SQL can be run incrementally.
+     */
+    private boolean canRunIncrementally(CharSequence sql, OutputSink out) {
+        String reason = null;
+        if (!this.backend.supportsTransactionalDDL()) {
+            reason = "the database cannot undo schema changes";
+        } else if (this.streamResults) {
+            reason = "results are streamed to disk";
+        } else if (controlsTransactions(sql)) {
+            reason = "the SQL controls its own transactions";
+        }
+        if (reason != null) {
+            out.appendOutput("Running all statements, since " + reason + ".");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param sql Some SQL.
+     * @return True if any statement of the SQL starts or ends a transaction itself.
+     */
+    private static boolean controlsTransactions(CharSequence sql) {
+        SqlLexer lexer = new SqlLexer(sql);
+        for (SqlStatement statement; (statement = lexer.next()) != null; ) {
+            if (statement.controlsTransactions()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs testing SQL in the incremental session. If the session was opened for the same database, initialization and
+     * limits, the statements which are unchanged since the last comparison are undone no further than the first
+     * changed statement, and only the statements from there on are run. Otherwise, the side is prepared as usual and
+     * a new session is opened.
+     * @param name The name of the database or schema used by the testing side.
+     * @param phase The name of the metrics timer for running the SQL.
+     * @param initializationSQL The SQL which is run to initialize the database or schema.
+     * @param fixture The fixture database to copy, or null if the initialization SQL must be run.
+     * @param sql The testing SQL.
+     * @param out The sink to write output to.
+     * @return The execution log of the testing SQL, including the actions of statements which were not run again.
+     * @throws SQLException If the session could not be opened or rolled back.
+     */
+    private ExecutionLog runSideIncrementally(String name, String phase, CharSequence initializationSQL, String fixture, CharSequence sql, OutputSink out) throws SQLException {
+        IncrementalSession session = this.incrementalSession;
+        ResourceLimits limits = this.resourceLimits;
+        String url = this.getUrl(this.isolationMode == IsolationMode.SCHEMA ? DB_SHARED : name);
+        String key = Hashes.sha256Hex(url, this.isolationMode.name(), name, initializationSQL,
+                String.valueOf(limits.getTimeoutSeconds()), String.valueOf(limits.getMaxRows()), String.valueOf(limits.getWorkMem()));
+        if (!session.isOpenFor(key)) {
+            session.close();
+            this.prepareSide(name, initializationSQL, fixture, out);
+            Connection conn = this.connectionPool.getConnection(url);
+            if (this.isolationMode == IsolationMode.SCHEMA) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("SET search_path TO " + name);
+                }
+            }
+            session.open(key, conn);
+        }
+
+        long start = System.nanoTime();
+        List<SqlStatement> queries = SqlLexer.split(sql);
+        List<String> prefixHashes = IncrementalSession.hashPrefixes(queries);
+        int reused = session.matchingPrefix(prefixHashes);
+        session.rollbackTo(reused);
+        ExecutionLog log = new ExecutionLog();
+        boolean pristine = true;
+        for (int i = 0; i < reused; i++) {
+            this.recordAssessed(log, session.getAction(i));
+            pristine &= queries.get(i).isReadOnly();
+        }
+        if (reused > 0) {
+            out.appendOutput("Reusing the results of " + reused + " unchanged statements.");
+        }
+        String schema = this.isolationMode == IsolationMode.SCHEMA ? name : null;
+        try (Statement st = session.getConnection().createStatement()) {
+            this.applyResourceLimits(st);
+            for (int i = reused; i < queries.size(); i++) {
+                ExecutionAction action = null;
+                try {
+                    action = this.executeAssessed(queries.get(i), schema, pristine, st, out);
+                } catch (SQLException e) {
+                    out.appendOutput("Exception while executing statement: " + e.getMessage());
+                }
+                pristine &= queries.get(i).isReadOnly();
+                if (action == null || action instanceof TimedOutAction) {
+                    // A failed or cancelled statement leaves the transaction unusable until it is undone.
+                    session.rollbackStatement();
+                }
+                this.recordAssessed(log, action);
+                session.recordStatement(prefixHashes.get(i), action);
+            }
+        }
+        this.recordTableState(name, log, out);
+        this.metrics.recordTime(phase, start);
+        return log;
+    }
+
+    /**
+     * Adds the state of all of a side's tables to its log, if end states are compared.
+     * @param name The name of the database or schema used by the side.
+     * @param log The side's execution log.
+     * @param out The sink to write output to.
+     */
+    private void recordTableState(String name, ExecutionLog log, OutputSink out) {
+        if (!this.compareEndState) {
+            return;
+        }
+        TableStateAction tableState = this.captureTableState(name, out);
+        if (tableState != null) {
+            out.appendOutput(tableState.toString());
+            log.recordAction(tableState);
+        } else {
+            log.markIncomplete();
+        }
+    }
+
+    /**
+     * Some work done with a statement on one side of a comparison.
+     */
+    private interface SideWork<T> {
+        T run(Statement statement) throws SQLException;
+    }
+
+    /**
+     * Does some work with a statement on one side's database or schema. The incremental session is used for the
+     * testing side while it is open, since the session's changes are only visible inside its transaction.
+     * @param name The name of the database or schema used by the side.
+     * @param work The work to do.
+     * @return The result of the work.
+     * @throws SQLException If the work failed, or no connection could be made.
+     */
+    private <T> T onSide(String name, SideWork<T> work) throws SQLException {
+        IncrementalSession session = this.incrementalSession;
+        if (session != null && name.equals(this.testingDatabase) && session.getConnection() != null) {
+            try (Statement st = session.getConnection().createStatement()) {
+                return work.run(st);
+            }
+        }
+        String url = this.getUrl(this.isolationMode == IsolationMode.SCHEMA ? DB_SHARED : name);
+        Connection conn = this.connectionPool.getConnection(url);
+        try (Statement st = conn.createStatement()) {
+            if (this.isolationMode == IsolationMode.SCHEMA) {
+                st.execute("SET search_path TO " + name);
+            }
+            return work.run(st);
+        } finally {
+            this.connectionPool.release(url, conn);
+        }
+    }
+
+    /**
+     * Computes a digest of every table of one side, on the server if the backend supports it.
+     * @param name The name of the database or schema used by the side.
+     * @param out The sink to write output to.
+     * @return The state of the side's tables, or null if it could not be determined.
+     */
+    private TableStateAction captureTableState(String name, OutputSink out) {
+        try {
+            return this.onSide(name, st -> {
+                List<String> tables = new ArrayList<>();
+                try (ResultSet rs = st.executeQuery(LIST_TABLES_SQL)) {
+                    while (rs.next()) {
+                        tables.add(rs.getString(1));
+                    }
+                }
+                Map<String, String> digests = new HashMap<>();
+                for (String table : tables) {
+                    String digestSQL = this.backend.getTableDigestSQL(quoteIdentifier(table));
+                    if (digestSQL != null) {
+                        try (ResultSet rs = st.executeQuery(digestSQL)) {
+                            rs.next();
+                            digests.put(table, rs.getString(1));
+                        }
+                    } else {
+                        try (ResultSet rs = st.executeQuery("SELECT * FROM " + quoteIdentifier(table))) {
+                            digests.put(table, TableStateAction.digest(rs));
+                        }
+                    }
+                }
+                return new TableStateAction(digests);
+            });
+        } catch (SQLException e) {
+            out.appendOutput("Could not determine the state of the tables: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Shows which tables differ between the template and testing sides. If the template was run for this comparison,
+     * the rows of each table whose contents differ are fetched from both sides, to show which rows differ.
+     * @param templateState The state of the template side's tables.
+     * @param testingState The state of the testing side's tables.
+     * @param templateRan Whether the template database holds the results of the template SQL.
+     * @param out The sink to write output to.
+     */
+    private void reportTableDifferences(TableStateAction templateState, TableStateAction testingState, boolean templateRan, OutputSink out) {
+        for (String table : templateState.differingTables(testingState)) {
+            if (!testingState.hasTable(table)) {
+                out.appendOutput("Table " + table + " is missing.");
+                continue;
+            }
+            if (!templateState.hasTable(table)) {
+                out.appendOutput("Table " + table + " was not expected.");
+                continue;
+            }
+            out.appendOutput("Table " + table + " has different contents.");
+            if (!templateRan) {
+                continue;
+            }
+            Map<String, Integer> expectedRows = this.fetchRows(this.templateDatabase, table, out);
+            Map<String, Integer> actualRows = this.fetchRows(this.testingDatabase, table, out);
+            if (expectedRows == null || actualRows == null) {
+                continue;
+            }
+            out.indentOutput();
+            reportMissingRows("Missing rows:", expectedRows, actualRows, out);
+            reportMissingRows("Unexpected rows:", actualRows, expectedRows, out);
+            out.unindentOutput();
+        }
+    }
+
+    /**
+     * Shows the rows which occur more often in one table than in another.
+     * @param title The title to show above the rows.
+     * @param rows The number of times each row occurs in the one table.
+     * @param otherRows The number of times each row occurs in the other table.
+     * @param out The sink to write output to.
+     */
+    private static void reportMissingRows(String title, Map<String, Integer> rows, Map<String, Integer> otherRows, OutputSink out) {
+        StringBuilder sb = new StringBuilder(title);
+        int shown = 0;
+        int missing = 0;
+        for (Map.Entry<String, Integer> entry : rows.entrySet()) {
+            int count = entry.getValue() - otherRows.getOrDefault(entry.getKey(), 0);
+            for (int i = 0; i < count; i++, missing++) {
+                if (shown < MAX_DIFFERENCE_SHOWN_ROWS) {
+                    sb.append("\n\t").append(entry.getKey());
+                    shown++;
+                }
+            }
+        }
+        if (missing > shown) {
+            sb.append("\n\t... and ").append(missing - shown).append(" more");
+        }
+        if (missing > 0) {
+            out.appendOutput(sb.toString());
+        }
+    }
+
+    /**
+     * Fetches the rows of a table of one side, and counts how often each row occurs.
+     * @param name The name of the database or schema used by the side.
+     * @param table The name of the table.
+     * @param out The sink to write output to.
+     * @return The number of times each row occurs, by the text of the row, or null if the rows could not be fetched.
+     */
+    private Map<String, Integer> fetchRows(String name, String table, OutputSink out) {
+        try {
+            return this.onSide(name, st -> {
+                st.setMaxRows(MAX_DIFFERENCE_FETCH_ROWS);
+                Map<String, Integer> rows = new HashMap<>();
+                try (ResultSet rs = st.executeQuery("SELECT * FROM " + quoteIdentifier(table))) {
+                    int columnCount = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        StringBuilder sb = new StringBuilder("(");
+                        for (int i = 1; i <= columnCount; i++) {
+                            if (i > 1) {
+                                sb.append(", ");
+                            }
+                            sb.append(rs.getString(i));
+                        }
+                        rows.merge(sb.append(')').toString(), 1, Integer::sum);
+                    }
+                }
+                return rows;
+            });
+        } catch (SQLException e) {
+            out.appendOutput("Could not fetch the rows of table " + table + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String quoteIdentifier(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Drops and re-creates one of the isolated databases, and initializes it.
+     * @param database The name of the database.
+     * @param initializationSQL The SQL which is run on the database, if there is no fixture.
+     * @param fixture The fixture database to copy, or null if the initialization SQL must be run.
+     * @param out The sink to write output to.
+     */
+    private void prepareDatabase(String database, CharSequence initializationSQL, String fixture, OutputSink out) {
+        this.connectionPool.evict(this.getUrl(database));
+        String administrationDatabase = this.backend.getAdministrationDatabase(database);
+        String server = this.backend.getServerId();
+        long start = System.nanoTime();
+        // The fixture may have been evicted by another helper since it was prepared, in which case it is not copied.
+        if (fixture != null && FixtureManager.acquire(server, fixture)) {
+            try {
+                out.appendOutput("Dropping old database and re-creating it from fixture " + fixture + "...");
+                out.indentOutput();
+                this.executeQueries(administrationDatabase, this.backend.getRecreateSQL(database, fixture), false, out);
+                out.unindentOutput();
+                this.metrics.recordTime(Metrics.PHASE_DROP_CREATE, start);
+            } finally {
+                FixtureManager.release(server, fixture);
+            }
+        } else {
+            out.appendOutput("Dropping old database and re-creating it...");
+            out.indentOutput();
+            this.executeQueries(administrationDatabase, this.backend.getRecreateSQL(database, null), false, out);
+            out.unindentOutput();
+            this.metrics.recordTime(Metrics.PHASE_DROP_CREATE, start);
+
+            // Run initialization script on the database.
+            out.appendOutput("Running initialization SQL on database...");
+            out.indentOutput();
+            start = System.nanoTime();
+            this.executeQueries(database, initializationSQL, false, out);
+            this.metrics.recordTime(Metrics.PHASE_INIT, start);
+            out.unindentOutput();
+        }
+    }
+
+    /**
+     * Creates the shared database used for schema isolation, if it does not exist yet.
+     * @param out The sink to write output to.
+     */
+    private void prepareSharedDatabase(OutputSink out) {
+        synchronized (FixtureManager.lockFor(this.backend.getServerId(), DB_SHARED)) {
+            List<String> databases = this.listDatabases(DB_SHARED, out);
+            if (databases != null && !databases.contains(DB_SHARED)) {
+                out.appendOutput("Creating shared database " + DB_SHARED + "...");
+                this.executeQueries("", "CREATE DATABASE " + DB_SHARED + ";", false, out);
+            }
+        }
+        Set<String> schemas = this.listSchemas(out);
+        if (schemas != null) {
+            this.sharedSchemas = schemas;
+        }
+    }
+
+    /**
+     * Lists the schemas of the shared database.
+     * @param out The sink to write output to.
+     * @return The names of the schemas, or null if they could not be listed.
+     */
+    private Set<String> listSchemas(OutputSink out) {
+        String url = this.getUrl(DB_SHARED);
+        Connection conn = null;
+        try {
+            conn = this.connectionPool.getConnection(url);
+            Set<String> schemas = new HashSet<>();
+            try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT nspname FROM pg_namespace")) {
+                while (rs.next()) {
+                    schemas.add(rs.getString(1));
+                }
+            }
+            return schemas;
+        } catch (SQLException e) {
+            this.noteServerFailure(e);
+            out.appendOutput("Could not list schemas: " + e.getMessage());
+            return null;
+        } finally {
+            if (conn != null) {
+                this.connectionPool.release(url, conn);
+            }
+        }
+    }
+
+    /**
+     * Drops and re-creates one of the isolated schemas inside the shared database, and initializes it.
+     * @param schema The name of the schema.
+     * @param initializationSQL The SQL which is run in the schema.
+     * @param out The sink to write output to.
+     */
+    private void prepareSchema(String schema, CharSequence initializationSQL, OutputSink out) {
+        out.appendOutput("Dropping old schema and re-creating it...");
+        out.indentOutput();
+        long start = System.nanoTime();
+        this.executeQueries(DB_SHARED, null, "DROP SCHEMA IF EXISTS " + schema + " CASCADE; " +
+                "CREATE SCHEMA " + schema + ";", false, out);
+        this.metrics.recordTime(Metrics.PHASE_DROP_CREATE, start);
+        out.unindentOutput();
+
+        out.appendOutput("Running initialization SQL in schema...");
+        out.indentOutput();
+        start = System.nanoTime();
+        this.executeIsolated(schema, initializationSQL, false, out);
+        this.metrics.recordTime(Metrics.PHASE_INIT, start);
+        out.unindentOutput();
+    }
+
+    /**
+     * Executes queries in one of the isolated databases or schemas.
+     * @param name The name of the database or schema.
      * @param queriesString The string of queries.
      * @param safe Whether the queries should be checked for safety.
+     * @param out The sink to write output to.
      * @return The execution log from this series of queries.
      */
-    private ExecutionLog executeQueries(String database, String queriesString, boolean safe) {
-        ExecutionLog executionLog = new ExecutionLog();
-        String url = String.format(
-                "jdbc:postgresql://%s:%4d/%s?user=%s&password=%s",
-                host,
-                port,
-                database,
-                user,
-                password);
+    private ExecutionLog executeIsolated(String name, CharSequence queriesString, boolean safe, OutputSink out) {
+        if (this.isolationMode == IsolationMode.SCHEMA) {
+            return this.executeQueries(DB_SHARED, name, queriesString, safe, out);
+        } else {
+            return this.executeQueries(name, null, queriesString, safe, out);
+        }
+    }
+
+    /**
+     * Makes sure that a fixture database exists for the given initialization script, building it if needed. Fixtures
+     * left behind by other initialization scripts are dropped when a new one is built, unless they are being copied.
+     * @param initializationSQL The initialization script.
+     * @param out The sink to write output to.
+     * @return The name of the fixture database, or null if it could not be built.
+     */
+    private String prepareFixture(CharSequence initializationSQL, OutputSink out) {
+        String server = this.backend.getServerId();
+        String fixture = FixtureManager.fixtureName(initializationSQL);
+        if (FixtureManager.isReady(server, fixture)) {
+            return fixture;
+        }
+        List<String> existingDatabases = this.listDatabases(FixtureManager.FIXTURE_PREFIX, out);
+        if (existingDatabases == null) {
+            return null;
+        }
+        // Other fixtures are evicted before this fixture's lock is taken, so that no thread holds two fixture locks.
+        if (!existingDatabases.contains(fixture)) {
+            this.evictFixtures(existingDatabases, fixture, out);
+        }
+
+        synchronized (FixtureManager.lockFor(server, fixture)) {
+            if (FixtureManager.isReady(server, fixture)) {
+                return fixture;
+            }
+            List<String> databases = this.listDatabases(fixture, out);
+            if (databases == null) {
+                return null;
+            }
+            if (databases.contains(fixture)) {
+                FixtureManager.markReady(server, fixture);
+                return fixture;
+            }
+
+            out.appendOutput("Building fixture database " + fixture + "...");
+            out.indentOutput();
+            // Build under a temporary name, so that an interrupted build is never mistaken for a finished fixture.
+            String building = fixture + FixtureManager.BUILD_SUFFIX;
+            long start = System.nanoTime();
+            this.executeQueries(this.backend.getAdministrationDatabase(building), this.backend.getRecreateSQL(building, null), false, out);
+            this.metrics.recordTime(Metrics.PHASE_DROP_CREATE, start);
+            start = System.nanoTime();
+            this.executeQueries(building, initializationSQL, false, out);
+            this.metrics.recordTime(Metrics.PHASE_INIT, start);
+            this.connectionPool.evict(this.getUrl(building));
+            this.executeQueries("", "ALTER DATABASE " + building + " RENAME TO " + fixture + ";", false, out);
+            out.unindentOutput();
+
+            databases = this.listDatabases(fixture, out);
+            if (databases == null || !databases.contains(fixture)) {
+                return null;
+            }
+            FixtureManager.markReady(server, fixture);
+            return fixture;
+        }
+    }
+
+    /**
+     * Drops the fixtures among the given databases, other than the one which is kept. Each fixture is dropped while
+     * holding its lock, and only if no database is being copied from it at the time, so that it is never dropped from
+     * under another helper which is building or copying it.
+     * @param databases The databases to drop fixtures from.
+     * @param kept The fixture which is kept.
+     * @param out The sink to write output to.
+     */
+    private void evictFixtures(List<String> databases, String kept, OutputSink out) {
+        String server = this.backend.getServerId();
+        for (String database : databases) {
+            if (!FixtureManager.isFixture(database) || database.equals(kept)) {
+                continue;
+            }
+            synchronized (FixtureManager.lockFor(server, database)) {
+                if (FixtureManager.isInUse(server, database)) {
+                    continue;
+                }
+                FixtureManager.markEvicted(server, database);
+                this.connectionPool.evict(this.getUrl(database));
+                this.executeQueries("", this.backend.getDropSQL(database), false, out);
+            }
+        }
+    }
+
+    /**
+     * Drops the databases or schemas used by this helper, if they exist.
+     */
+    void dropDatabases() {
+        OutputSink out = this.output.openSink(OUTPUT_GENERAL);
+        if (this.incrementalSession != null) {
+            synchronized (this.incrementalSession) {
+                this.incrementalSession.close();
+            }
+        }
+        if (this.isolationMode == IsolationMode.SCHEMA) {
+            this.executeQueries(DB_SHARED, null, "DROP SCHEMA IF EXISTS " + this.templateDatabase + " CASCADE; " +
+                    "DROP SCHEMA IF EXISTS " + this.testingDatabase + " CASCADE;", false, out);
+            return;
+        }
+        for (String database : new String[]{this.templateDatabase, this.testingDatabase}) {
+            this.connectionPool.evict(this.getUrl(database));
+            this.executeQueries(this.backend.getAdministrationDatabase(database), this.backend.getDropSQL(database), false, out);
+        }
+    }
+
+    /**
+     * Lists the databases on the server whose names start with a given prefix.
+     * @param prefix The prefix to look for.
+     * @param out The sink to write output to.
+     * @return The names of the databases, or null if they could not be listed.
+     */
+    private List<String> listDatabases(String prefix, OutputSink out) {
+        String url = this.getUrl("");
+        Connection conn = null;
         try {
-            Connection conn = DriverManager.getConnection(url);
+            conn = this.connectionPool.getConnection(url);
+            List<String> databases = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT datname FROM pg_database WHERE datistemplate = false AND strpos(datname, ?) = 1;")) {
+                ps.setString(1, prefix);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        databases.add(rs.getString(1));
+                    }
+                }
+            }
+            return databases;
+        } catch (SQLException e) {
+            this.noteServerFailure(e);
+            out.appendOutput("Could not list databases: " + e.getMessage());
+            return null;
+        } finally {
+            if (conn != null) {
+                this.connectionPool.release(url, conn);
+            }
+        }
+    }
 
-            if (!conn.isValid(1000)) {
-                throw new SQLException("Invalid connection.");
+    /**
+     * Gets the version of the database server, which is fetched once and then remembered.
+     * @param out The sink to write output to.
+     * @return The server's version, or null if it could not be determined.
+     */
+    private String getServerVersion(OutputSink out) {
+        if (this.serverVersion != null) {
+            return this.serverVersion;
+        }
+        String url = this.getUrl("");
+        Connection conn = null;
+        try {
+            conn = this.connectionPool.getConnection(url);
+            this.serverVersion = conn.getMetaData().getDatabaseProductVersion();
+        } catch (SQLException e) {
+            this.noteServerFailure(e);
+            out.appendOutput("Could not determine server version: " + e.getMessage());
+        } finally {
+            if (conn != null) {
+                this.connectionPool.release(url, conn);
             }
+        }
+        return this.serverVersion;
+    }
+
+    /**
+     * @return The last error during the last comparison which shows that the database server failed, or null if the
+     * server worked throughout. When there is such an error, the comparison's result can not be trusted.
+     */
+    SQLException getServerFailure() {
+        return this.serverFailure;
+    }
+
+    /**
+     * Remembers an error if it shows that the database server failed, such as a lost connection or a server which is
+     * shutting down or out of resources.
+     * @param e The error.
+     */
+    private void noteServerFailure(SQLException e) {
+        String state = e.getSQLState();
+        if (state != null && (state.startsWith("08") || state.startsWith("53") || state.startsWith("57P")
+                || state.startsWith("58") || state.startsWith("XX"))) {
+            this.serverFailure = e;
+        }
+    }
+
+    private String getUrl(String database) {
+        return this.backend.getUrl(database);
+    }
 
-            List<String> queries = splitQueries(queriesString);
+    /**
+     * Executes possibly many queries which are contained in one string.
+     * @param database The database name to connect to, or an empty string to connect to the user's database.
+     * @param queriesString The string of queries.
+     * @param safe Whether the queries should be checked for safety.
+     * @param out The sink to write output to.
+     * @return The execution log from this series of queries.
+     */
+    private ExecutionLog executeQueries(String database, CharSequence queriesString, boolean safe, OutputSink out) {
+        return this.executeQueries(database, null, queriesString, safe, out);
+    }
 
-            Statement st = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    /**
+     * Executes possibly many queries which are contained in one string, inside a particular schema.
+     * @param database The database name to connect to, or an empty string to connect to the user's database.
+     * @param schema The schema to use as the search path, or null to use the database's default search path.
+     * @param queriesString The string of queries.
+     * @param safe Whether the queries should be checked for safety.
+     * @param out The sink to write output to.
+     * @return The execution log from this series of queries.
+     */
+    private ExecutionLog executeQueries(String database, String schema, CharSequence queriesString, boolean safe, OutputSink out) {
+        ExecutionLog executionLog = new ExecutionLog();
+        String url = this.getUrl(database);
+        Connection conn = null;
+        try {
+            long connectStart = System.nanoTime();
+            conn = this.connectionPool.getConnection(url);
+            this.metrics.recordTime(Metrics.PHASE_CONNECT, connectStart);
+
+            // Statements are run as soon as they are found, so that a large script is never split up all at once.
+            SqlLexer lexer = new SqlLexer(queriesString);
 
-            for (String query : queries) {
+            try (Statement st = conn.createStatement()) {
+                // Pooled connections to the shared database may still have the search path of their previous use.
+                if (schema != null || DB_SHARED.equals(database)) {
+                    st.execute("SET search_path TO " + (schema != null ? schema : "DEFAULT"));
+                }
+                if (safe) {
+                    this.applyResourceLimits(st);
+                }
                 try {
-                    if (!safe || isQuerySafe(query)) {
-                        executionLog.recordAction(executeQuery(query, st));
-                    } else {
-                        window.appendOutput("Blocked execution of unsafe query: " + query);
+                    // Whether no statement which could change data has been run yet.
+                    boolean pristine = true;
+                    // Updates whose outcome is not compared, such as those which fill the initialization data, are
+                    // sent to the server in batches. A batch runs in a transaction of its own, so a script which
+                    // begins or ends transactions itself is never batched.
+                    boolean batching = !safe && !controlsTransactions(queriesString);
+                    List<SqlStatement> batch = new ArrayList<>();
+                    for (SqlStatement query; (query = lexer.next()) != null; ) {
+                        if (batching && query.getKind() == StatementKind.DML) {
+                            batch.add(query);
+                            if (batch.size() == MAX_BATCH_SIZE) {
+                                this.executeBatch(batch, st, out);
+                            }
+                            continue;
+                        }
+                        if (!batch.isEmpty()) {
+                            this.executeBatch(batch, st, out);
+                        }
+                        try {
+                            if (!safe) {
+                                executionLog.recordAction(executeQuery(query, st, out));
+                            } else {
+                                this.recordAssessed(executionLog, this.executeAssessed(query, schema, pristine, st, out));
+                            }
+                        } catch (SQLException e) {
+                            this.noteServerFailure(e);
+                            out.appendOutput("Exception while executing statement: " + e.getMessage());
+                        }
+                        pristine &= query.isReadOnly();
+                    }
+                    if (!batch.isEmpty()) {
+                        this.executeBatch(batch, st, out);
+                    }
+                } finally {
+                    if (safe) {
+                        // The connection goes back to the pool, so its session settings are restored.
+                        this.backend.resetSessionLimits(st);
                     }
-                } catch (SQLException e) {
-                    window.appendOutput("Exception while executing statement: " + e.getMessage());
                 }
             }
-
-            conn.close();
         } catch (SQLException e) {
-            int previousChannel = window.getOutputChannel();
-            window.setOutputChannel(Window.OUTPUT_GENERAL);
-            window.appendOutput("Unexpected SQL Exception occurred. URL:\n" + url + "\n\tException: " + e.getMessage() + "\n\tSQL State: " + e.getSQLState());
-            window.setOutputChannel(previousChannel);
+            this.noteServerFailure(e);
+            executionLog.markIncomplete();
+            out.appendOutput("Unexpected SQL Exception occurred. URL:\n" + url + "\n\tException: " + e.getMessage() + "\n\tSQL State: " + e.getSQLState());
+        } finally {
+            if (conn != null) {
+                this.connectionPool.release(url, conn);
+            }
         }
 
         return executionLog;
@@ -133,74 +1062,306 @@ class DatabaseHelper {
 
     /**
      * Executes a single query and outputs the results.
-     * @param query The query to execute. Must be only one query in the string.
+     * @param query The query to execute.
      * @param statement The statement used to execute the query.
+     * @param out The sink to write output to.
      * @return The execution action which was done by executing this query.
      */
-    private ExecutionAction executeQuery(String query, Statement statement) throws SQLException {
-        if (isSQLStatementQuery(query)) {
+    private ExecutionAction executeQuery(SqlStatement query, Statement statement, OutputSink out) throws SQLException {
+        String sql = query.getText();
+        if (query.getKind() == StatementKind.QUERY) {
             // A result set is expected.
-            window.appendOutput("Executing query:\n" + query);
+            out.appendOutput("Executing query:\n" + sql);
 
-            QueryAction action = new QueryAction(statement.executeQuery(query), isQueryOrdered(query));
-            window.appendOutput(action.toString());
+            long start = System.nanoTime();
+            QueryAction action;
+            if (this.streamResults) {
+                action = new QueryAction(streamQuery(sql, statement), query.isOrdered());
+            } else {
+                action = new QueryAction(statement.executeQuery(sql), query.isOrdered());
+            }
+            this.metrics.recordStatement(sql, true, start, action.getResult().getRowCount(), action.getResult().getByteCount());
+            out.appendOutput(action.toString());
             return action;
         } else {
             // A result set is not expected.
-            window.appendOutput("Executing update:\n" + query);
-            UpdateAction action = new UpdateAction(statement.executeUpdate(query), query);
-            window.appendOutput(action.toString());
+            out.appendOutput("Executing update:\n" + sql);
+            long start = System.nanoTime();
+            UpdateAction action = new UpdateAction(statement.executeUpdate(sql), sql);
+            this.metrics.recordStatement(sql, false, start, action.getRowsAffected(), 0);
+            out.appendOutput(action.toString());
             return action;
         }
     }
 
     /**
-     * Splits and cleans each query so that it will run properly.
-     * @param queriesString A string containing one or more queries to execute.
-     * @return A list of individual queries.
+     * Limits the time, rows and memory of the statements which are run with the given statement, and the rest of
+     * its session.
+     * @param statement The statement used to run the assessed statements.
      */
-    private static List<String> splitQueries(String queriesString) {
-        String[] sections = queriesString.split(";");
-        List<String> strings = new ArrayList<>();
+    private void applyResourceLimits(Statement statement) throws SQLException {
+        ResourceLimits limits = this.resourceLimits;
+        statement.setQueryTimeout(limits.getTimeoutSeconds());
+        statement.setMaxRows(limits.getMaxRows());
+        this.backend.applySessionLimits(statement, limits);
+    }
 
-        for (String section : sections) {
-            String s = section.trim();
-            if (!s.isEmpty()) {
-                strings.add(s);
+    /**
+     * Executes a single assessed statement, unless it is unsafe. The result of a read-only query on unmodified
+     * initialization data is taken from the result memo if it is there, and is remembered otherwise.
+     * @param query The query to execute.
+     * @param schema The schema which the query is confined to, or null if it has a database of its own.
+     * @param pristine Whether no statement which could change data has been run before this one.
+     * @param statement The statement used to execute the query, whose resource limits have been applied.
+     * @param out The sink to write output to.
+     * @return The execution action which was done by executing this query, or null if it was blocked.
+     */
+    private ExecutionAction executeAssessed(SqlStatement query, String schema, boolean pristine, Statement statement, OutputSink out) throws SQLException {
+        if (!isQuerySafe(query, schema)) {
+            out.appendOutput("Blocked execution of unsafe query: " + query.getText());
+            return null;
+        }
+        String memoKey = null;
+        if (pristine && query.isReadOnly() && this.resultMemo != null && this.memoScope != null) {
+            memoKey = Hashes.sha256Hex(this.memoScope, query.getNormalizedText());
+            QueryResult result = this.resultMemo.get(memoKey);
+            if (result != null) {
+                out.appendOutput("Executing query:\n" + query.getText());
+                out.appendOutput("Reusing the result of an identical earlier query.");
+                QueryAction action = new QueryAction(result, query.isOrdered());
+                action.setMemoKey(memoKey);
+                this.metrics.increment(Metrics.COUNT_MEMO_HITS, 1);
+                out.appendOutput(action.toString());
+                this.measureCost(query, action, statement, out);
+                return action;
             }
         }
+        ExecutionAction action = this.executeLimited(query, statement, out);
+        if (memoKey != null && action instanceof QueryAction) {
+            QueryAction queryAction = (QueryAction) action;
+            queryAction.setMemoKey(memoKey);
+            this.resultMemo.put(memoKey, queryAction.getResult());
+        }
+        if (action instanceof QueryAction) {
+            this.measureCost(query, (QueryAction) action, statement, out);
+        }
+        return action;
+    }
 
-        return strings;
+    /**
+     * Measures the cost of a read-only query by running it again with EXPLAIN ANALYZE, if costs are compared. Queries
+     * which may change data are not measured, since they would change it a second time.
+     * @param query The query.
+     * @param action The query's action, to which the cost is added.
+     * @param statement The statement used to execute the query.
+     * @param out The sink to write output to.
+     */
+    private void measureCost(SqlStatement query, QueryAction action, Statement statement, OutputSink out) {
+        String explainSQL = this.maxCostRatio > 0 && query.isReadOnly() ? this.backend.getExplainSQL(query.getText()) : null;
+        if (explainSQL == null) {
+            return;
+        }
+        Savepoint savepoint = null;
+        try {
+            // In the incremental session, a failed statement would leave the transaction unusable until it is undone.
+            Connection conn = statement.getConnection();
+            savepoint = conn.getAutoCommit() ? null : conn.setSavepoint();
+            try (ResultSet resultSet = statement.executeQuery(explainSQL)) {
+                if (resultSet.next()) {
+                    action.setCost(QueryCost.parse(resultSet.getString(1)));
+                    out.appendOutput(action.getCost().toString());
+                }
+            }
+            if (savepoint != null) {
+                conn.releaseSavepoint(savepoint);
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            out.appendOutput("Could not measure the cost of the query: " + e.getMessage());
+            if (savepoint != null) {
+                try {
+                    statement.getConnection().rollback(savepoint);
+                } catch (SQLException rollbackException) {
+                    rollbackException.printStackTrace();
+                }
+            }
+        }
     }
 
     /**
-     * Determines if the given query is safe to run.
-     * @param query The query to run.
-     * @return True if this query is safe, or false if it would cause damage to the system.
+     * Adds the action of an assessed statement to a log.
+     * @param log The log.
+     * @param action The action, or null if the statement was blocked or failed.
      */
-    private static boolean isQuerySafe(String query) {
-        String upper = query.trim().toUpperCase();
-        return !upper.startsWith("CREATE DATABASE")
-                && !upper.startsWith("DROP DATABASE");
+    private void recordAssessed(ExecutionLog log, ExecutionAction action) {
+        if (action instanceof TimedOutAction) {
+            // A log with a timed out statement says too little about the SQL to be cached.
+            log.markIncomplete();
+        }
+        // When comparing end states, updates are judged by the tables they leave behind instead.
+        if (action != null && !(this.compareEndState && action instanceof UpdateAction)) {
+            log.recordAction(action);
+        }
     }
 
     /**
-     * Determines if an SQL string is a query (it should return a result set)
-     * @param str The string to check.
-     * @return True if this is a query, or false if it is an update.
+     * Executes a single assessed statement, and cancels it if it runs for longer than the resource limits allow.
+     * @param query The query to execute.
+     * @param statement The statement used to execute the query, whose resource limits have been applied.
+     * @param out The sink to write output to.
+     * @return The execution action which was done by executing this query, or a {@link TimedOutAction} if it was
+     * cancelled.
      */
-    private static boolean isSQLStatementQuery(String str) {
-        String upper = str.toUpperCase();
-        return upper.startsWith("SELECT");
+    private ExecutionAction executeLimited(SqlStatement query, Statement statement, OutputSink out) throws SQLException {
+        long watchdogMillis = this.resourceLimits.getWatchdogMillis();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = watchdogMillis == 0 ? null : WATCHDOG.schedule(() -> {
+            // Only cancel while the statement is still running, so that a later statement is never cancelled.
+            if (running.compareAndSet(true, false)) {
+                cancelled.set(true);
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, watchdogMillis, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try {
+            ExecutionAction action = this.executeQuery(query, statement, out);
+            int maxRows = this.resourceLimits.getMaxRows();
+            if (action instanceof QueryAction && maxRows > 0 && ((QueryAction) action).getResult().getRowCount() >= maxRows) {
+                out.appendOutput("Result was limited to " + maxRows + " rows.");
+            }
+            return action;
+        } catch (SQLException e) {
+            if (cancelled.get() || e instanceof SQLTimeoutException || QUERY_CANCELED_STATE.equals(e.getSQLState())) {
+                TimedOutAction action = new TimedOutAction(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                out.appendOutput(action.toString());
+                return action;
+            }
+            throw e;
+        } finally {
+            running.set(false);
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
     }
 
     /**
-     * Determines if a query is ordered by something.
-     * @param query The query to check.
-     * @return True if the query makes use of the 'ORDER BY' clause.
+     * Executes a run of update statements as one batch, in a single round trip to the server, and then clears the
+     * list. Only the total number of affected rows is shown. If any statement fails, the whole batch is rolled back
+     * and its statements are executed one by one instead, so that the outcome is the same as without batching.
+     * @param batch The statements to execute.
+     * @param statement The statement used to execute the batch.
+     * @param out The sink to write output to.
      */
-    private static boolean isQueryOrdered(String query) {
-        return query.toUpperCase().contains("ORDER BY");
+    private void executeBatch(List<SqlStatement> batch, Statement statement, OutputSink out) throws SQLException {
+        if (batch.size() == 1) {
+            try {
+                this.executeQuery(batch.get(0), statement, out);
+            } catch (SQLException e) {
+                out.appendOutput("Exception while executing statement: " + e.getMessage());
+            }
+            batch.clear();
+            return;
+        }
+
+        Connection conn = statement.getConnection();
+        long start = System.nanoTime();
+        try {
+            conn.setAutoCommit(false);
+            for (SqlStatement query : batch) {
+                statement.addBatch(query.getText());
+            }
+            long rowsAffected = 0;
+            for (int count : statement.executeBatch()) {
+                if (count > 0) {
+                    rowsAffected += count;
+                }
+            }
+            conn.commit();
+            this.metrics.recordStatement("-- Batch of " + batch.size() + " updates, starting with:\n" + batch.get(0).getText(),
+                    false, start, rowsAffected, 0);
+            out.appendOutput("Executed batch of " + batch.size() + " updates:\n\tRows affected: " + rowsAffected);
+        } catch (SQLException e) {
+            conn.rollback();
+            statement.clearBatch();
+            conn.setAutoCommit(true);
+            for (SqlStatement query : batch) {
+                try {
+                    this.executeQuery(query, statement, out);
+                } catch (SQLException statementException) {
+                    out.appendOutput("Exception while executing statement: " + statementException.getMessage());
+                }
+            }
+        } finally {
+            conn.setAutoCommit(true);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Executes a query using a server-side cursor, so that only a limited number of rows is held in memory at once,
+     * and writes its results to disk. The server only uses a cursor inside of a transaction, so one is started just
+     * for this query.
+     * @param query The query to execute.
+     * @param statement The statement used to execute the query.
+     * @return The result of the query.
+     */
+    private static QueryResult streamQuery(String query, Statement statement) throws SQLException {
+        Connection conn = statement.getConnection();
+        conn.setAutoCommit(false);
+        try {
+            statement.setFetchSize(STREAMING_FETCH_SIZE);
+            QueryResult result;
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                result = SpilledResult.write(resultSet);
+            }
+            conn.commit();
+            return result;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            statement.setFetchSize(0);
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Determines if the given query is safe to run.
+     * @param query The query to run.
+     * @param schema The schema which the query is confined to, or null if it has a database of its own.
+     * @return True if this query is safe, or false if it would cause damage to the system.
+     */
+    private boolean isQuerySafe(SqlStatement query, String schema) {
+        if (!query.isSafe()) {
+            return false;
+        }
+        if (schema == null) {
+            return true;
+        }
+        if (query.escapesSchema()) {
+            return false;
+        }
+        // Any mention of another managed schema, such as the other side of the comparison, is not allowed.
+        Matcher matcher = MANAGED_NAME.matcher(query.getText());
+        while (matcher.find()) {
+            if (!matcher.group().equalsIgnoreCase(schema)) {
+                return false;
+            }
+        }
+        // Nor may tables or functions of any other schema be named, such as those in public.
+        Set<String> sharedSchemas = this.sharedSchemas;
+        for (String qualifier : query.getQualifiers()) {
+            if (!qualifier.equals(schema) && !SYSTEM_SCHEMAS.contains(qualifier) && sharedSchemas.contains(qualifier)) {
+                return false;
+            }
+        }
+        return true;
     }
 
 }
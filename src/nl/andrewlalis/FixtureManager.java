@@ -0,0 +1,99 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.util.Hashes;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of fixture databases: databases which have had an initialization script run on them once, and which are
+ * then copied by the server whenever a fresh database with that initialization is needed. Each fixture is named after
+ * a hash of its initialization script, so a changed script automatically results in a new fixture.
+ */
+class FixtureManager {
+
+    static final String FIXTURE_PREFIX = "sql_assess_fixture_";
+    static final String BUILD_SUFFIX = "_build";
+
+    /**
+     * The number of hexadecimal digits of the script hash used in fixture names. This keeps names well within the
+     * server's identifier length limit.
+     */
+    private static final int HASH_LENGTH = 16;
+
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private static final Set<String> readyFixtures = ConcurrentHashMap.newKeySet();
+    /**
+     * The number of databases currently being copied from each fixture. A fixture is never dropped while it is in use.
+     */
+    private static final Map<String, Integer> users = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the name of the fixture database for an initialization script.
+     * @param initializationSQL The initialization script.
+     * @return The database name.
+     */
+    static String fixtureName(CharSequence initializationSQL) {
+        return FIXTURE_PREFIX + Hashes.sha256Hex(initializationSQL).substring(0, HASH_LENGTH);
+    }
+
+    /**
+     * Gets an object to synchronize on while building or checking a fixture, so that only one thread in this process
+     * builds any given fixture.
+     */
+    static Object lockFor(String server, String fixture) {
+        return locks.computeIfAbsent(server + '/' + fixture, k -> new Object());
+    }
+
+    /**
+     * @return True if the fixture is already known to exist on the given server.
+     */
+    static boolean isReady(String server, String fixture) {
+        return readyFixtures.contains(server + '/' + fixture);
+    }
+
+    static void markReady(String server, String fixture) {
+        readyFixtures.add(server + '/' + fixture);
+    }
+
+    static void markEvicted(String server, String fixture) {
+        readyFixtures.remove(server + '/' + fixture);
+    }
+
+    /**
+     * Starts using a fixture, so that it is not evicted until {@link #release(String, String)} is called.
+     * @return True if the fixture is ready and may be copied, or false if it is not, in which case it must not be
+     * released.
+     */
+    static boolean acquire(String server, String fixture) {
+        String key = server + '/' + fixture;
+        synchronized (lockFor(server, fixture)) {
+            if (!readyFixtures.contains(key)) {
+                return false;
+            }
+            users.merge(key, 1, Integer::sum);
+            return true;
+        }
+    }
+
+    static void release(String server, String fixture) {
+        users.computeIfPresent(server + '/' + fixture, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * @return True if a database is currently being copied from the fixture. Should be called while holding the
+     * fixture's lock.
+     */
+    static boolean isInUse(String server, String fixture) {
+        return users.containsKey(server + '/' + fixture);
+    }
+
+    /**
+     * @return True if the given database name belongs to a completed fixture.
+     */
+    static boolean isFixture(String database) {
+        return database.startsWith(FIXTURE_PREFIX) && !database.endsWith(BUILD_SUFFIX);
+    }
+
+}
@@ -0,0 +1,117 @@
+package nl.andrewlalis;
+
+/**
+ * The outcome of grading a single submission in a batch run.
+ */
+class GradingResult {
+
+    enum Status {
+        PASSED,
+        FAILED,
+        ERROR
+    }
+
+    private final String submission;
+    private final Status status;
+    private final long durationMillis;
+    private final String message;
+    private final Boolean fastEnough;
+
+    GradingResult(String submission, Status status, long durationMillis, String message) {
+        this(submission, status, durationMillis, message, null);
+    }
+
+    /**
+     * @param fastEnough Whether the submission's queries were no more costly than allowed, compared with the
+     *                   template's, or null if their costs were not compared.
+     */
+    GradingResult(String submission, Status status, long durationMillis, String message, Boolean fastEnough) {
+        this.submission = submission;
+        this.status = status;
+        this.durationMillis = durationMillis;
+        this.message = message;
+        this.fastEnough = fastEnough;
+    }
+
+    String getSubmission() {
+        return this.submission;
+    }
+
+    Status getStatus() {
+        return this.status;
+    }
+
+    long getDurationMillis() {
+        return this.durationMillis;
+    }
+
+    String getMessage() {
+        return this.message;
+    }
+
+    Boolean isFastEnough() {
+        return this.fastEnough;
+    }
+
+    static String csvHeader() {
+        return "submission,status,duration_ms,message,fast_enough";
+    }
+
+    String toCsv() {
+        return csvField(this.submission) + ',' + this.status + ',' + this.durationMillis + ',' + csvField(this.message)
+                + ',' + (this.fastEnough != null ? this.fastEnough.toString() : "");
+    }
+
+    String toJson() {
+        return "{\"submission\": " + jsonString(this.submission)
+                + ", \"status\": \"" + this.status + '"'
+                + ", \"durationMs\": " + this.durationMillis
+                + ", \"message\": " + jsonString(this.message)
+                + ", \"fastEnough\": " + this.fastEnough + '}';
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+}
@@ -0,0 +1,182 @@
+package nl.andrewlalis;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves grading over HTTP on the local machine, so that an autograder can submit one submission at a time without
+ * starting a new process for each. A fixed number of workers grade submissions, and each of them keeps its databases,
+ * fixtures and connections from one submission to the next. Submissions wait in a queue of limited size; when it is
+ * full, new submissions are turned away until there is room again.
+ *
+ * <p>Endpoints:</p>
+ * <ul>
+ *     <li>{@code POST /grade?name=<submission>} grades the SQL in the request body, and responds with the result and
+ *     the output of the comparison as JSON.</li>
+ *     <li>{@code GET /status} responds with the number of submissions which are queued, being graded and finished.</li>
+ * </ul>
+ */
+class GradingService {
+
+    /**
+     * The number of seconds after which a submission which was turned away may be sent again.
+     */
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final BatchGrader grader;
+    private final CharSequence initializationSQL;
+    private final CharSequence templateSQL;
+    private final int threads;
+    private final int queueSize;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService requestExecutor = Executors.newCachedThreadPool();
+    private HttpServer server;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param grader The grader with which submissions are graded.
+     * @param initializationSQL The SQL which is run on both databases before each comparison.
+     * @param templateSQL The SQL which is known to be correct.
+     * @param threads The maximum number of submissions to grade at the same time.
+     * @param queueSize The maximum number of submissions which may wait to be graded.
+     */
+    GradingService(BatchGrader grader, CharSequence initializationSQL, CharSequence templateSQL, int threads, int queueSize) {
+        this.grader = grader;
+        this.initializationSQL = initializationSQL;
+        this.templateSQL = templateSQL;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Starts listening for submissions on the loopback address.
+     * @param port The port to listen on.
+     * @throws IOException If the port could not be listened on.
+     */
+    void start(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/grade", this::handleGrade);
+        this.server.createContext("/status", this::handleStatus);
+        // Requests only wait for their submission, so they do not count against the number of workers.
+        this.server.setExecutor(this.requestExecutor);
+        this.server.start();
+    }
+
+    /**
+     * Stops accepting submissions, waits for the ones which are being graded, and then drops the workers' databases.
+     */
+    void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.requestExecutor.shutdownNow();
+        this.grader.close();
+    }
+
+    private void handleGrade(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            this.respond(exchange, 405, "{\"error\": \"Submissions must be sent with POST.\"}");
+            return;
+        }
+        String name = queryParameter(exchange, "name");
+        String testingSQL = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        String submission = name != null ? name : "submission";
+
+        Future<String> future;
+        try {
+            future = this.executor.submit(() -> {
+                this.running.incrementAndGet();
+                try {
+                    GradingResult result = this.grader.gradeSQL(submission, this.initializationSQL, this.templateSQL, testingSQL);
+                    String output = this.grader.drainOutput();
+                    return "{\"result\": " + result.toJson() + ", \"output\": " + GradingResult.jsonString(output) + "}";
+                } finally {
+                    this.running.decrementAndGet();
+                    this.completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            this.respond(exchange, 503, "{\"error\": \"Too many submissions are waiting; try again later.\"}");
+            return;
+        }
+
+        try {
+            this.respond(exchange, 200, future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            this.respond(exchange, 503, "{\"error\": \"The service is shutting down.\"}");
+        } catch (ExecutionException e) {
+            this.respond(exchange, 500, "{\"error\": " + GradingResult.jsonString(String.valueOf(e.getCause())) + "}");
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        this.respond(exchange, 200, "{\"threads\": " + this.threads
+                + ", \"queueSize\": " + this.queueSize
+                + ", \"queued\": " + this.executor.getQueue().size()
+                + ", \"running\": " + this.running.get()
+                + ", \"completed\": " + this.completed.get()
+                + ", \"rejected\": " + this.rejected.get() + "}");
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && parameter.substring(0, separator).equals(name)) {
+                return URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,106 @@
+package nl.andrewlalis;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An H2 database engine running inside this application in its PostgreSQL compatibility mode, on which each isolated
+ * database is a separate in-memory database. This needs no server and no provisioning, which makes comparisons of
+ * exercises using only standard SQL very fast. The H2 driver only needs to be on the class path at runtime.
+ */
+class InMemoryBackend implements DatabaseBackend {
+
+    /**
+     * The name of the database which is used when no database is given.
+     */
+    private static final String DEFAULT_DATABASE = "sql_assess_default";
+
+    /**
+     * Settings which make H2 behave more like PostgreSQL. Words which H2 reserves but PostgreSQL does not, and which
+     * are common column names, may be used as identifiers. In-memory databases are kept until they are dropped, rather
+     * than when their last connection is closed.
+     */
+    private static final String URL_SETTINGS = ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH"
+            + ";NON_KEYWORDS=VALUE,KEY,YEAR,MONTH,DAY,HOUR,MINUTE,SECOND;DB_CLOSE_DELAY=-1";
+
+    @Override
+    public String getServerId() {
+        return "h2:mem";
+    }
+
+    @Override
+    public String getUrl(String database) {
+        return "jdbc:h2:mem:" + (database.isEmpty() ? DEFAULT_DATABASE : database) + URL_SETTINGS;
+    }
+
+    @Override
+    public boolean supportsFixtures() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSchemas() {
+        return false;
+    }
+
+    /**
+     * H2 commits the open transaction before every schema change.
+     */
+    @Override
+    public boolean supportsTransactionalDDL() {
+        return false;
+    }
+
+    /**
+     * In-memory databases are created by connecting to them, so they are emptied and dropped from the inside.
+     */
+    @Override
+    public String getAdministrationDatabase(String database) {
+        return database;
+    }
+
+    @Override
+    public String getRecreateSQL(String database, String fixture) {
+        return "DROP ALL OBJECTS;";
+    }
+
+    @Override
+    public String getDropSQL(String database) {
+        return "DROP ALL OBJECTS;";
+    }
+
+    /**
+     * The rows are in the same process, so fetching them costs no more than digesting them in the database.
+     */
+    @Override
+    public String getTableDigestSQL(String table) {
+        return null;
+    }
+
+    /**
+     * H2 can only describe plans as text, without the cost of each part.
+     */
+    @Override
+    public String getExplainSQL(String query) {
+        return null;
+    }
+
+    /**
+     * H2 has no way of discarding a session's state, but its databases cannot be shared by schemas anyway.
+     */
+    @Override
+    public String getResetSessionSQL() {
+        return null;
+    }
+
+    @Override
+    public void applySessionLimits(Statement statement, ResourceLimits limits) throws SQLException {
+        statement.execute("SET QUERY_TIMEOUT " + limits.getTimeoutSeconds() * 1000L);
+    }
+
+    @Override
+    public void resetSessionLimits(Statement statement) throws SQLException {
+        statement.execute("SET QUERY_TIMEOUT 0");
+    }
+
+}
@@ -0,0 +1,156 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionAction;
+import nl.andrewlalis.sql.SqlStatement;
+import nl.andrewlalis.util.Hashes;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the testing database of the last comparison in an open transaction, with a savepoint after each statement, so
+ * that a resubmission which only changes later statements can continue from the last unchanged one. The statements
+ * before it are not run again; their actions are reused instead.
+ */
+class IncrementalSession {
+
+    /**
+     * Identifies the database, initialization and limits which the session was opened for. Any change to these means
+     * that the session must be started over.
+     */
+    private String key;
+    private Connection connection;
+
+    /**
+     * The hash of each statement which was run, together with all statements before it.
+     */
+    private final List<String> prefixHashes = new ArrayList<>();
+
+    /**
+     * The action of each statement which was run, or null for statements which were blocked or failed.
+     */
+    private final List<ExecutionAction> actions = new ArrayList<>();
+
+    /**
+     * The savepoint after each number of statements, starting with the savepoint before the first statement.
+     */
+    private final List<Savepoint> savepoints = new ArrayList<>();
+
+    /**
+     * Computes the hash of each prefix of a list of statements, so that the hash of a statement also covers all
+     * statements before it.
+     * @param statements The statements.
+     * @return The hash of each statement and the statements before it.
+     */
+    static List<String> hashPrefixes(List<SqlStatement> statements) {
+        List<String> hashes = new ArrayList<>(statements.size());
+        String previous = "";
+        for (SqlStatement statement : statements) {
+            previous = Hashes.sha256Hex(previous, statement.getText());
+            hashes.add(previous);
+        }
+        return hashes;
+    }
+
+    /**
+     * @param key The key of a database, initialization and limits.
+     * @return True if the session is open, and was opened for the given key.
+     */
+    boolean isOpenFor(String key) {
+        return this.connection != null && key.equals(this.key);
+    }
+
+    /**
+     * Starts a session on a freshly initialized database, in which no statements have been run yet.
+     * @param key The key of the database, initialization and limits.
+     * @param connection A connection to the database, which is closed when the session is.
+     * @throws SQLException If the transaction could not be started.
+     */
+    void open(String key, Connection connection) throws SQLException {
+        this.close();
+        this.connection = connection;
+        connection.setAutoCommit(false);
+        this.savepoints.add(connection.setSavepoint());
+        this.key = key;
+    }
+
+    Connection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * @param prefixHashes The prefix hashes of the statements to run.
+     * @return The number of leading statements which were already run in this session.
+     */
+    int matchingPrefix(List<String> prefixHashes) {
+        int count = 0;
+        while (count < prefixHashes.size() && count < this.prefixHashes.size()
+                && prefixHashes.get(count).equals(this.prefixHashes.get(count))) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param index The index of a statement which was run.
+     * @return The statement's action, or null if it was blocked or failed.
+     */
+    ExecutionAction getAction(int index) {
+        return this.actions.get(index);
+    }
+
+    /**
+     * Undoes all statements after the first few, and forgets about them.
+     * @param count The number of statements to keep.
+     * @throws SQLException If the statements could not be undone.
+     */
+    void rollbackTo(int count) throws SQLException {
+        this.connection.rollback(this.savepoints.get(count));
+        this.prefixHashes.subList(count, this.prefixHashes.size()).clear();
+        this.actions.subList(count, this.actions.size()).clear();
+        this.savepoints.subList(count + 1, this.savepoints.size()).clear();
+    }
+
+    /**
+     * Undoes a statement which failed, which would otherwise leave the transaction unusable.
+     * @throws SQLException If the statement could not be undone.
+     */
+    void rollbackStatement() throws SQLException {
+        this.connection.rollback(this.savepoints.get(this.savepoints.size() - 1));
+    }
+
+    /**
+     * Remembers a statement which has been run, and sets a savepoint after it.
+     * @param prefixHash The prefix hash of the statement.
+     * @param action The statement's action, or null if it was blocked or failed.
+     * @throws SQLException If the savepoint could not be set.
+     */
+    void recordStatement(String prefixHash, ExecutionAction action) throws SQLException {
+        this.savepoints.add(this.connection.setSavepoint());
+        this.prefixHashes.add(prefixHash);
+        this.actions.add(action);
+    }
+
+    /**
+     * Ends the session, undoing all of its statements, so that its database may be dropped.
+     */
+    void close() {
+        if (this.connection != null) {
+            try {
+                this.connection.rollback();
+                this.connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        this.connection = null;
+        this.key = null;
+        this.prefixHashes.clear();
+        this.actions.clear();
+        this.savepoints.clear();
+    }
+
+}
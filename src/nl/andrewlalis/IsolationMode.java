@@ -0,0 +1,16 @@
+package nl.andrewlalis;
+
+/**
+ * The ways in which the template and testing SQL can be kept apart from each other.
+ */
+enum IsolationMode {
+    /**
+     * Each side gets its own database, which is dropped and re-created for every comparison.
+     */
+    DATABASE,
+    /**
+     * Each side gets its own schema inside one long-lived, shared database, which is selected using the search path
+     * and dropped and re-created for every comparison. This does not need permission to create databases.
+     */
+    SCHEMA
+}
@@ -0,0 +1,92 @@
+package nl.andrewlalis;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, which can be recorded to from many threads at once without locking. Durations are kept
+ * in microseconds, in buckets which are exact below 16 and otherwise split each power of two into 8 parts, so that
+ * percentiles are accurate to within about 12%.
+ */
+class LatencyHistogram {
+
+    private static final int EXACT_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = EXACT_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a single duration.
+     * @param nanos The duration, in nanoseconds.
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        this.buckets.incrementAndGet(bucketOf(micros));
+        this.count.increment();
+        this.totalMicros.add(micros);
+        this.maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    long getCount() {
+        return this.count.sum();
+    }
+
+    long getTotalMicros() {
+        return this.totalMicros.sum();
+    }
+
+    long getMaxMicros() {
+        return this.maxMicros.get();
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations.
+     * @param quantile The quantile, between 0 and 1.
+     * @return The highest duration in the bucket containing the percentile, in microseconds, or 0 if nothing was
+     * recorded.
+     */
+    long getPercentileMicros(double quantile) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), this.getMaxMicros());
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < EXACT_BUCKETS) {
+            return (int) micros;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT_BUCKETS + (highestBit - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_BUCKETS) {
+            return bucket;
+        }
+        int highestBit = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (highestBit - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + width - 1;
+    }
+
+}
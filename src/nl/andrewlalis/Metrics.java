@@ -0,0 +1,175 @@
+package nl.andrewlalis;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects timings and counts about where time is spent while comparing SQL, such as the time of each phase of a
+ * comparison and the latency of each statement. It may be shared by many threads, and can be exported as JSON or CSV.
+ */
+class Metrics {
+
+    static final String PHASE_CONNECT = "connect";
+    static final String PHASE_DROP_CREATE = "drop_create";
+    static final String PHASE_INIT = "init";
+    static final String PHASE_TEMPLATE = "template";
+    static final String PHASE_TESTING = "testing";
+    static final String PHASE_COMPARE = "compare";
+    static final String STATEMENT_QUERY = "statement_query";
+    static final String STATEMENT_UPDATE = "statement_update";
+
+    static final String COUNT_ROWS_RETURNED = "rows_returned";
+    static final String COUNT_ROWS_AFFECTED = "rows_affected";
+    static final String COUNT_BYTES_FETCHED = "bytes_fetched";
+    static final String COUNT_MEMO_HITS = "memo_hits";
+
+    /**
+     * The number of slowest statements which are kept.
+     */
+    private static final int MAX_SLOW_STATEMENTS = 20;
+
+    /**
+     * The number of characters of a statement which are kept with its timing.
+     */
+    private static final int MAX_STATEMENT_LENGTH = 200;
+
+    private final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final PriorityQueue<SlowStatement> slowStatements = new PriorityQueue<>(Comparator.comparingLong(s -> s.nanos));
+    private volatile long slowStatementThreshold;
+
+    /**
+     * Records the time that has passed since some starting time.
+     * @param name The name of the timer.
+     * @param startNanos The starting time, as given by {@link System#nanoTime()}.
+     * @return The time that has passed, in nanoseconds.
+     */
+    long recordTime(String name, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        this.timers.computeIfAbsent(name, k -> new LatencyHistogram()).record(nanos);
+        return nanos;
+    }
+
+    void increment(String name, long amount) {
+        this.counters.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Records the execution of a single statement.
+     * @param sql The statement.
+     * @param query Whether the statement returned a result set.
+     * @param startNanos The time at which execution started, as given by {@link System#nanoTime()}.
+     * @param rows The number of rows returned or affected.
+     * @param bytes The approximate number of bytes fetched.
+     */
+    void recordStatement(String sql, boolean query, long startNanos, long rows, long bytes) {
+        long nanos = this.recordTime(query ? STATEMENT_QUERY : STATEMENT_UPDATE, startNanos);
+        this.increment(query ? COUNT_ROWS_RETURNED : COUNT_ROWS_AFFECTED, rows);
+        this.increment(COUNT_BYTES_FETCHED, bytes);
+        if (nanos > this.slowStatementThreshold) {
+            synchronized (this.slowStatements) {
+                String text = sql.length() > MAX_STATEMENT_LENGTH ? sql.substring(0, MAX_STATEMENT_LENGTH) + "..." : sql;
+                this.slowStatements.add(new SlowStatement(text, nanos, rows, bytes));
+                if (this.slowStatements.size() > MAX_SLOW_STATEMENTS) {
+                    this.slowStatements.poll();
+                }
+                if (this.slowStatements.size() == MAX_SLOW_STATEMENTS) {
+                    this.slowStatementThreshold = this.slowStatements.peek().nanos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all metrics to a file. If the file name ends in ".json", a JSON document is written, otherwise CSV is
+     * written. The slowest statements are only included in JSON.
+     * @param file The file to write to.
+     * @throws IOException If the file could not be written.
+     */
+    void write(File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            if (file.getName().toLowerCase().endsWith(".json")) {
+                this.writeJson(writer);
+            } else {
+                this.writeCsv(writer);
+            }
+        }
+    }
+
+    private void writeJson(PrintWriter writer) {
+        writer.println("{");
+        writer.println("  \"timers\": {");
+        List<String> names = new ArrayList<>(new TreeSet<>(this.timers.keySet()));
+        for (int i = 0; i < names.size(); i++) {
+            LatencyHistogram h = this.timers.get(names.get(i));
+            writer.println("    " + GradingResult.jsonString(names.get(i)) + ": {\"count\": " + h.getCount()
+                    + ", \"totalMs\": " + millis(h.getTotalMicros())
+                    + ", \"meanMs\": " + millis(h.getCount() == 0 ? 0 : h.getTotalMicros() / h.getCount())
+                    + ", \"p50Ms\": " + millis(h.getPercentileMicros(0.5))
+                    + ", \"p90Ms\": " + millis(h.getPercentileMicros(0.9))
+                    + ", \"p99Ms\": " + millis(h.getPercentileMicros(0.99))
+                    + ", \"maxMs\": " + millis(h.getMaxMicros()) + '}' + (i < names.size() - 1 ? "," : ""));
+        }
+        writer.println("  },");
+        writer.println("  \"counters\": {");
+        names = new ArrayList<>(new TreeSet<>(this.counters.keySet()));
+        for (int i = 0; i < names.size(); i++) {
+            writer.println("    " + GradingResult.jsonString(names.get(i)) + ": " + this.counters.get(names.get(i)).sum()
+                    + (i < names.size() - 1 ? "," : ""));
+        }
+        writer.println("  },");
+        writer.println("  \"slowestStatements\": [");
+        List<SlowStatement> slowest;
+        synchronized (this.slowStatements) {
+            slowest = new ArrayList<>(this.slowStatements);
+        }
+        slowest.sort(Comparator.comparingLong((SlowStatement s) -> s.nanos).reversed());
+        for (int i = 0; i < slowest.size(); i++) {
+            SlowStatement s = slowest.get(i);
+            writer.println("    {\"ms\": " + millis(s.nanos / 1000) + ", \"rows\": " + s.rows + ", \"bytes\": " + s.bytes
+                    + ", \"sql\": " + GradingResult.jsonString(s.sql) + '}' + (i < slowest.size() - 1 ? "," : ""));
+        }
+        writer.println("  ]");
+        writer.println("}");
+    }
+
+    private void writeCsv(PrintWriter writer) {
+        writer.println("metric,count,total_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms");
+        for (String name : new TreeSet<>(this.timers.keySet())) {
+            LatencyHistogram h = this.timers.get(name);
+            writer.println(name + ',' + h.getCount() + ',' + millis(h.getTotalMicros()) + ','
+                    + millis(h.getCount() == 0 ? 0 : h.getTotalMicros() / h.getCount()) + ','
+                    + millis(h.getPercentileMicros(0.5)) + ',' + millis(h.getPercentileMicros(0.9)) + ','
+                    + millis(h.getPercentileMicros(0.99)) + ',' + millis(h.getMaxMicros()));
+        }
+        for (String name : new TreeSet<>(this.counters.keySet())) {
+            writer.println(name + ',' + this.counters.get(name).sum() + ",,,,,,");
+        }
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+
+    private static class SlowStatement {
+        private final String sql;
+        private final long nanos;
+        private final long rows;
+        private final long bytes;
+
+        private SlowStatement(String sql, long nanos, long rows, long bytes) {
+            this.sql = sql;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+}
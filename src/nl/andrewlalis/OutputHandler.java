@@ -0,0 +1,29 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionLog;
+
+/**
+ * Something which can receive the textual output of an SQL comparison, such as the main window or a headless log.
+ * Output is divided into the channels defined in {@link Window}.
+ */
+interface OutputHandler {
+
+    /**
+     * Opens a new sink which writes to one of the output channels. Each sink keeps track of its own indentation.
+     * @param channel The channel to write to.
+     * @return The output sink.
+     */
+    OutputSink openSink(int channel);
+
+    /**
+     * Receives the logs of a finished comparison, after which this handler is responsible for releasing them. By
+     * default, they are released immediately.
+     * @param templateLog The log of the template SQL.
+     * @param testingLog The log of the testing SQL.
+     */
+    default void publishLogs(ExecutionLog templateLog, ExecutionLog testingLog) {
+        templateLog.release();
+        testingLog.release();
+    }
+
+}
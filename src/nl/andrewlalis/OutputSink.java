@@ -0,0 +1,19 @@
+package nl.andrewlalis;
+
+/**
+ * A destination for the output of one part of an SQL comparison, with its own indentation. Separate parts of a
+ * comparison which run at the same time each write to their own sink, so their output is never mixed.
+ */
+interface OutputSink {
+
+    void indentOutput();
+
+    void unindentOutput();
+
+    /**
+     * Adds some text to this sink, followed by a new line.
+     * @param text The text to append.
+     */
+    void appendOutput(String text);
+
+}
@@ -0,0 +1,109 @@
+package nl.andrewlalis;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A PostgreSQL server, on which each isolated database is a real database created by the connected user.
+ */
+class PostgresBackend implements DatabaseBackend {
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+
+    PostgresBackend(String host, int port, String user, String password) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+    }
+
+    @Override
+    public String getServerId() {
+        return this.host + ':' + this.port;
+    }
+
+    @Override
+    public String getUrl(String database) {
+        return String.format(
+                "jdbc:postgresql://%s:%d/%s?user=%s&password=%s",
+                this.host,
+                this.port,
+                database,
+                this.user,
+                this.password);
+    }
+
+    @Override
+    public boolean supportsFixtures() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSchemas() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsTransactionalDDL() {
+        return true;
+    }
+
+    /**
+     * Databases are created and dropped from the user's own database, since no one may be connected to them.
+     */
+    @Override
+    public String getAdministrationDatabase(String database) {
+        return "";
+    }
+
+    @Override
+    public String getRecreateSQL(String database, String fixture) {
+        return "DROP DATABASE IF EXISTS " + database + "; " +
+                "CREATE DATABASE " + database + (fixture != null ? " TEMPLATE " + fixture : "") + ";";
+    }
+
+    @Override
+    public String getDropSQL(String database) {
+        return "DROP DATABASE IF EXISTS " + database + ";";
+    }
+
+    /**
+     * The digest is the number of rows and the sum of the first 64 bits of the MD5 hash of each row's text.
+     */
+    @Override
+    public String getTableDigestSQL(String table) {
+        return "SELECT count(*) || ':' || coalesce(sum(('x' || substr(md5(t::text), 1, 16))::bit(64)::bigint), 0) " +
+                "FROM " + table + " t";
+    }
+
+    @Override
+    public String getExplainSQL(String query) {
+        return "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + query;
+    }
+
+    /**
+     * DISCARD ALL cannot be run inside of a transaction block, nor together with other statements, so the connection
+     * pool ends any open transaction before it is run on its own.
+     */
+    @Override
+    public String getResetSessionSQL() {
+        return "DISCARD ALL";
+    }
+
+    @Override
+    public void applySessionLimits(Statement statement, ResourceLimits limits) throws SQLException {
+        statement.execute("SET statement_timeout = " + limits.getTimeoutSeconds() * 1000L);
+        if (limits.getWorkMem() != null) {
+            statement.execute("SET work_mem = '" + limits.getWorkMem() + "'");
+        }
+    }
+
+    @Override
+    public void resetSessionLimits(Statement statement) throws SQLException {
+        statement.execute("RESET statement_timeout; RESET work_mem");
+    }
+
+}
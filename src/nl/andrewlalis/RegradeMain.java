@@ -0,0 +1,79 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionLog;
+import nl.andrewlalis.log.LogStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Headless entry point which grades the submissions in a log store again, by comparing their stored logs with the
+ * stored log of the template. No database is needed, since no SQL is run.
+ */
+public class RegradeMain {
+
+    private static final String USAGE = "Usage: RegradeMain [options] <store directory>\n" +
+            "Options:\n" +
+            "\t--summary <file>       Summary file; JSON if it ends in .json, otherwise CSV (default summary.csv)";
+
+    public static void main(String[] args) {
+        File summary = new File("summary.csv");
+        File directory = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--summary") && i + 1 < args.length) {
+                summary = new File(args[++i]);
+            } else if (directory == null && !args[i].startsWith("--")) {
+                directory = new File(args[i]);
+            } else {
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+        }
+        if (directory == null || !directory.isDirectory()) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        try (LogStore store = LogStore.open(directory)) {
+            long start = System.currentTimeMillis();
+            ExecutionLog templateLog = store.read(BatchGrader.STORED_TEMPLATE_KEY);
+            if (templateLog == null) {
+                System.err.println("The log store does not contain a template log.");
+                System.exit(1);
+            }
+            List<GradingResult> results = store.keys().parallelStream()
+                    .filter(key -> key.startsWith(BatchGrader.STORED_SUBMISSION_PREFIX))
+                    .map(key -> regrade(store, templateLog, key))
+                    .collect(Collectors.toList());
+            long totalMillis = System.currentTimeMillis() - start;
+            BatchGrader.writeSummary(results, totalMillis, summary);
+            long passed = results.stream().filter(r -> r.getStatus() == GradingResult.Status.PASSED).count();
+            System.out.printf("Re-graded %d submissions in %d ms; %d passed. Summary written to %s%n",
+                    results.size(), totalMillis, passed, summary);
+        } catch (IOException e) {
+            System.err.println("Re-grading failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares the stored log of one submission with the template's log.
+     */
+    private static GradingResult regrade(LogStore store, ExecutionLog templateLog, String key) {
+        String submission = key.substring(BatchGrader.STORED_SUBMISSION_PREFIX.length());
+        long start = System.nanoTime();
+        try {
+            ExecutionLog testingLog = store.read(key);
+            boolean passed = templateLog.firstDifference(testingLog) == -1;
+            return new GradingResult(submission, passed ? GradingResult.Status.PASSED : GradingResult.Status.FAILED,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), null);
+        } catch (IOException e) {
+            return new GradingResult(submission, GradingResult.Status.ERROR,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e.getMessage());
+        }
+    }
+
+}
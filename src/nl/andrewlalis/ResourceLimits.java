@@ -0,0 +1,58 @@
+package nl.andrewlalis;
+
+/**
+ * Limits on the resources which the assessed statements of a comparison may use, so that a runaway statement (such
+ * as an accidental cartesian product) cannot keep a worker and a database backend busy forever.
+ */
+class ResourceLimits {
+
+    /**
+     * The limits used when none are given.
+     */
+    static final ResourceLimits DEFAULT = new ResourceLimits(30, 1_000_000, "64MB");
+
+    /**
+     * The extra time given to a statement on top of its timeout, before it is cancelled from the client side. This
+     * leaves the server-side timeout time to act first.
+     */
+    private static final long WATCHDOG_GRACE_MILLIS = 5000;
+
+    private final int timeoutSeconds;
+    private final int maxRows;
+    private final String workMem;
+
+    /**
+     * @param timeoutSeconds The maximum number of seconds a statement may run, or 0 for no limit.
+     * @param maxRows The maximum number of rows kept from a single result, or 0 for no limit.
+     * @param workMem The amount of memory each query operation may use on the server, such as "64MB", or null to
+     *                use the server's default.
+     */
+    ResourceLimits(int timeoutSeconds, int maxRows, String workMem) {
+        if (workMem != null && !workMem.matches("\\d+\\s*[A-Za-z]*")) {
+            throw new IllegalArgumentException("Invalid amount of memory: " + workMem);
+        }
+        this.timeoutSeconds = timeoutSeconds;
+        this.maxRows = maxRows;
+        this.workMem = workMem;
+    }
+
+    int getTimeoutSeconds() {
+        return this.timeoutSeconds;
+    }
+
+    int getMaxRows() {
+        return this.maxRows;
+    }
+
+    String getWorkMem() {
+        return this.workMem;
+    }
+
+    /**
+     * @return The wall-clock time after which a statement is cancelled from the client side, or 0 for no limit.
+     */
+    long getWatchdogMillis() {
+        return this.timeoutSeconds == 0 ? 0 : this.timeoutSeconds * 1000L + WATCHDOG_GRACE_MILLIS;
+    }
+
+}
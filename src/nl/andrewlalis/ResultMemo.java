@@ -0,0 +1,108 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionAction;
+import nl.andrewlalis.log.QueryAction;
+import nl.andrewlalis.log.QueryResult;
+import nl.andrewlalis.log.ResultSnapshot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the results of read-only queries which were run on unmodified initialization data, so that the same
+ * query submitted by many students is only run once. The verdicts of comparisons between such results are remembered
+ * as well. Entries are keyed by the initialization data and the normalized text of the query, and the least recently
+ * used entries are evicted once the memo is full. A memo may be shared by several helpers.
+ */
+class ResultMemo {
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * The maximum total size of the remembered results. A single result may use at most a quarter of this.
+     */
+    private static final long MAX_BYTES = 256L * 1024 * 1024;
+
+    private final int maxEntries;
+    private long byteCount;
+
+    private final LinkedHashMap<String, QueryResult> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Boolean> verdicts = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return this.size() > ResultMemo.this.maxEntries;
+        }
+    };
+
+    /**
+     * @param maxEntries The maximum number of results, and of verdicts, which are remembered.
+     */
+    ResultMemo(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param key The memo key of a query.
+     * @return The remembered result of the query, or null if there is none.
+     */
+    synchronized QueryResult get(String key) {
+        return this.results.get(key);
+    }
+
+    /**
+     * Remembers the result of a query. Results which are kept on disk, or which are very large, are not remembered.
+     * @param key The memo key of the query.
+     * @param result The query's result.
+     */
+    synchronized void put(String key, QueryResult result) {
+        if (!(result instanceof ResultSnapshot) || result.getByteCount() > MAX_BYTES / 4) {
+            return;
+        }
+        QueryResult previous = this.results.put(key, result);
+        if (previous != null) {
+            this.byteCount -= previous.getByteCount();
+        }
+        this.byteCount += result.getByteCount();
+        Iterator<QueryResult> iterator = this.results.values().iterator();
+        while ((this.results.size() > this.maxEntries || this.byteCount > MAX_BYTES) && iterator.hasNext()) {
+            this.byteCount -= iterator.next().getByteCount();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Compares two actions, reusing the verdict of an earlier comparison if both are results of memoized queries. The
+     * results of the same memoized query are equal without comparing them, since the same read-only query on the same
+     * data always gives the same result.
+     * @param mine The action of the template.
+     * @param theirs The action being assessed.
+     * @return True if the actions are equal.
+     */
+    boolean actionsEqual(ExecutionAction mine, ExecutionAction theirs) {
+        if (!(mine instanceof QueryAction) || !(theirs instanceof QueryAction)) {
+            return mine.equals(theirs);
+        }
+        String myKey = ((QueryAction) mine).getMemoKey();
+        String theirKey = ((QueryAction) theirs).getMemoKey();
+        if (myKey == null || theirKey == null) {
+            return mine.equals(theirs);
+        }
+        if (myKey.equals(theirKey)) {
+            return true;
+        }
+        String key = myKey + ':' + theirKey;
+        Boolean verdict;
+        synchronized (this) {
+            verdict = this.verdicts.get(key);
+        }
+        if (verdict == null) {
+            verdict = mine.equals(theirs);
+            synchronized (this) {
+                this.verdicts.put(key, verdict);
+            }
+        }
+        return verdict;
+    }
+
+}
@@ -0,0 +1,87 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.QueryResult;
+import nl.andrewlalis.log.RowCursor;
+
+import javax.swing.table.AbstractTableModel;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A table model which shows the rows of a query result. Rows are read and formatted one page at a time, only once the
+ * table asks for them, and only a few pages are kept, so that results of any size can be shown.
+ */
+class ResultTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of rows which are read at once.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The number of pages which are kept in memory.
+     */
+    private static final int MAX_CACHED_PAGES = 8;
+
+    private final QueryResult result;
+    private final Map<Long, String[][]> pages = new LinkedHashMap<Long, String[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String[][]> eldest) {
+            return this.size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    /**
+     * @param result The result to show, which must not be released while this model is in use.
+     */
+    ResultTableModel(QueryResult result) {
+        this.result = result;
+    }
+
+    @Override
+    public int getRowCount() {
+        return (int) Math.min(this.result.getRowCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return this.result.getColumnCount();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return this.result.getColumnName(column);
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        String[] values = this.pages.computeIfAbsent((long) row / PAGE_SIZE, this::readPage)[row % PAGE_SIZE];
+        return values == null ? null : values[column];
+    }
+
+    /**
+     * Reads a single page of rows from the result.
+     * @param page The index of the page.
+     * @return The formatted values of each row in the page. Rows which could not be read are null.
+     */
+    private String[][] readPage(long page) {
+        String[][] rows = new String[PAGE_SIZE][];
+        int columnCount = this.result.getColumnCount();
+        try (RowCursor cursor = this.result.openCursor(page * PAGE_SIZE)) {
+            for (int row = 0; row < PAGE_SIZE && cursor.next(); row++) {
+                String[] values = new String[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    values[column] = String.valueOf(cursor.getValue(column));
+                }
+                rows[row] = values;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,58 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionAction;
+import nl.andrewlalis.log.ExecutionLog;
+import nl.andrewlalis.log.QueryAction;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dialog which shows the full results of the queries in an execution log, one query at a time.
+ */
+class ResultViewer extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param owner The window which owns this dialog.
+     * @param title The title of the dialog.
+     * @param log The log whose query results are shown. It must not be released while the dialog is open.
+     */
+    ResultViewer(Frame owner, String title, ExecutionLog log) {
+        super(owner, title, false);
+
+        List<QueryAction> queries = new ArrayList<>();
+        for (ExecutionAction action : log.getActions()) {
+            if (action instanceof QueryAction) {
+                queries.add((QueryAction) action);
+            }
+        }
+
+        JTable table = new JTable();
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        JComboBox<String> querySelector = new JComboBox<>();
+        for (int i = 0; i < queries.size(); i++) {
+            querySelector.addItem("Query " + (i + 1) + " (" + queries.get(i).getResult().getRowCount() + " rows)");
+        }
+        querySelector.addActionListener(actionEvent -> {
+            int index = querySelector.getSelectedIndex();
+            if (index >= 0) {
+                table.setModel(new ResultTableModel(queries.get(index).getResult()));
+            }
+        });
+        if (!queries.isEmpty()) {
+            table.setModel(new ResultTableModel(queries.get(0).getResult()));
+        }
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(querySelector, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        this.setContentPane(panel);
+        this.setSize(800, 600);
+        this.setLocationRelativeTo(owner);
+    }
+
+}
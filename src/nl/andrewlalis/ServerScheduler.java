@@ -0,0 +1,137 @@
+package nl.andrewlalis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads grading work over several database servers. Each piece of work goes to the healthy server with the least
+ * expected waiting time, which is estimated from the amount of work the server is already doing and how long its
+ * recent work took. A server which fails is avoided for a while, so that its work is retried on the others.
+ */
+class ServerScheduler {
+
+    /**
+     * How long a server which failed is avoided, unless no other server is left.
+     */
+    private static final long UNHEALTHY_MILLIS = 30_000;
+
+    /**
+     * The weight of the latest piece of work in a server's average latency, so that the average follows recent work.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final List<Server> servers = new ArrayList<>();
+
+    /**
+     * @param backends The backends of the servers to use, which must not be empty.
+     */
+    ServerScheduler(List<DatabaseBackend> backends) {
+        for (DatabaseBackend backend : backends) {
+            this.servers.add(new Server(backend));
+        }
+    }
+
+    /**
+     * @return All servers, in the order in which they were given.
+     */
+    List<Server> getServers() {
+        return Collections.unmodifiableList(this.servers);
+    }
+
+    /**
+     * Chooses the server on which to do a piece of work, and counts the work as in flight on that server until it is
+     * released. Servers which failed recently are only chosen if no healthy server is left.
+     * @param excluded Servers which must not be chosen, because the work already failed on them.
+     * @return The chosen server, or null if all servers are excluded.
+     */
+    synchronized Server acquire(Set<Server> excluded) {
+        long now = System.currentTimeMillis();
+        double knownLatency = 0;
+        int knownCount = 0;
+        for (Server server : this.servers) {
+            if (server.completed > 0) {
+                knownLatency += server.latencyNanos;
+                knownCount++;
+            }
+        }
+        // Servers without any finished work yet are assumed to be as fast as the others.
+        double defaultLatency = knownCount > 0 ? knownLatency / knownCount : 1;
+
+        Server best = null;
+        boolean bestHealthy = false;
+        double bestScore = 0;
+        for (Server server : this.servers) {
+            if (excluded.contains(server)) {
+                continue;
+            }
+            boolean healthy = now >= server.unhealthyUntil;
+            double latency = server.completed > 0 ? server.latencyNanos : defaultLatency;
+            double score = (server.inFlight + 1) * latency;
+            if (best == null || (healthy && !bestHealthy) || (healthy == bestHealthy && score < bestScore)) {
+                best = server;
+                bestHealthy = healthy;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            best.inFlight++;
+        }
+        return best;
+    }
+
+    /**
+     * Records that a piece of work on a server has finished.
+     * @param server The server which was given by {@link #acquire(Set)}.
+     * @param nanos How long the work took.
+     * @param failed Whether the server failed while doing the work.
+     */
+    synchronized void release(Server server, long nanos, boolean failed) {
+        server.inFlight--;
+        if (failed) {
+            server.failures++;
+            server.unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_MILLIS;
+        } else {
+            server.latencyNanos = server.completed == 0 ? nanos
+                    : (1 - LATENCY_WEIGHT) * server.latencyNanos + LATENCY_WEIGHT * nanos;
+            server.completed++;
+            server.unhealthyUntil = 0;
+        }
+    }
+
+    /**
+     * A database server, and the work done on it so far.
+     */
+    static class Server {
+        private final DatabaseBackend backend;
+        private int inFlight;
+        private double latencyNanos;
+        private long unhealthyUntil;
+        private int completed;
+        private int failures;
+
+        private Server(DatabaseBackend backend) {
+            this.backend = backend;
+        }
+
+        DatabaseBackend getBackend() {
+            return this.backend;
+        }
+
+        @Override
+        public String toString() {
+            return this.backend.getServerId();
+        }
+
+        /**
+         * @return A summary of the work done on this server.
+         */
+        String describe() {
+            return String.format("%s: %d completed, %d failed, average latency %d ms", this.backend.getServerId(),
+                    this.completed, this.failures, TimeUnit.NANOSECONDS.toMillis((long) this.latencyNanos));
+        }
+    }
+
+}
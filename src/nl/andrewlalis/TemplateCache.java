@@ -0,0 +1,95 @@
+package nl.andrewlalis;
+
+import nl.andrewlalis.log.ExecutionLog;
+import nl.andrewlalis.util.Hashes;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the execution logs of template SQL on disk, so that a template which has been run once against some
+ * initialization SQL never needs to be run again.
+ */
+class TemplateCache {
+
+    private static final String EXTENSION = ".log";
+
+    private final File directory;
+
+    TemplateCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The directory in the user's home directory where templates are cached by default.
+     */
+    static File defaultDirectory() {
+        return new File(System.getProperty("user.home"), ".sql-assesser" + File.separator + "template-cache");
+    }
+
+    /**
+     * Computes the key under which a template's results are cached.
+     * @param initializationSQL The SQL run before the template.
+     * @param templateSQL The template SQL.
+     * @param serverVersion The version of the database server, since results may differ between versions.
+     * @param compareEndState Whether the results include the end state of all tables.
+     * @param measureCost Whether the results include the cost of each query.
+     * @param limits The limits under which the template runs, since they may cut its results short or cancel it.
+     * @param isolationMode How the template is isolated, since the current schema and catalog differ between modes.
+     * @return The cache key.
+     */
+    static String key(CharSequence initializationSQL, CharSequence templateSQL, String serverVersion, boolean compareEndState,
+                      boolean measureCost, ResourceLimits limits, IsolationMode isolationMode) {
+        return Hashes.sha256Hex(initializationSQL, templateSQL, serverVersion, String.valueOf(compareEndState),
+                String.valueOf(measureCost), String.valueOf(limits.getTimeoutSeconds()),
+                String.valueOf(limits.getMaxRows()), String.valueOf(limits.getWorkMem()), isolationMode.name());
+    }
+
+    /**
+     * Loads a cached execution log.
+     * @param key The cache key.
+     * @return The execution log, or null if none is cached, or it could not be read.
+     */
+    ExecutionLog load(String key) {
+        File file = new File(this.directory, key + EXTENSION);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (ExecutionLog) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Entries written by an older version of this program can't be read, and are simply replaced.
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores an execution log in the cache. Logs which are incomplete, or which contain results that are too large to
+     * keep in memory, are not stored.
+     * @param key The cache key.
+     * @param log The execution log.
+     */
+    void store(String key, ExecutionLog log) {
+        if (!log.isComplete() || (!this.directory.isDirectory() && !this.directory.mkdirs())) {
+            return;
+        }
+        File file = new File(this.directory, key + EXTENSION);
+        File temporary = null;
+        try {
+            // Write to a temporary file first, so that other processes never read a partially written entry.
+            temporary = File.createTempFile(key, ".tmp", this.directory);
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeObject(log);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // NotSerializableException is thrown for results which are only kept on disk.
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+}
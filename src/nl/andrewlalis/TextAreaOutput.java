@@ -0,0 +1,103 @@
+package nl.andrewlalis;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Collects text for a text area from any thread, and appends it on the Event Dispatch Thread when flushed. Only the
+ * most recent output is kept, so that the text area stays responsive no matter how much output is written to it.
+ */
+class TextAreaOutput implements Consumer<String> {
+
+    /**
+     * The maximum number of characters kept in the text area. Older lines are removed once this is exceeded.
+     */
+    private static final int MAX_CHARACTERS = 1_000_000;
+
+    private final JTextArea textArea;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * The total length of the queued text.
+     */
+    private final AtomicLong pendingCharacters = new AtomicLong();
+
+    /**
+     * @param textArea The text area to append output to.
+     */
+    TextAreaOutput(JTextArea textArea) {
+        this.textArea = textArea;
+    }
+
+    /**
+     * Queues some text to be appended to the text area. This may be called from any thread. Queued text which would
+     * be removed again as soon as it is appended, because enough newer text has been queued after it, is discarded
+     * right away, so that the queue never holds much more than the text area does.
+     * @param text The text to append.
+     */
+    @Override
+    public void accept(String text) {
+        this.pending.add(text);
+        long total = this.pendingCharacters.addAndGet(text.length());
+        while (total > MAX_CHARACTERS) {
+            String oldest = this.pending.peek();
+            if (oldest == null || total - oldest.length() < MAX_CHARACTERS) {
+                break;
+            }
+            oldest = this.pending.poll();
+            if (oldest == null) {
+                break;
+            }
+            total = this.pendingCharacters.addAndGet(-oldest.length());
+        }
+    }
+
+    /**
+     * Appends all queued text to the text area at once, and removes the oldest lines if the text area has grown too
+     * large. Must be called on the Event Dispatch Thread.
+     */
+    void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        String text;
+        while ((text = this.pending.poll()) != null) {
+            this.pendingCharacters.addAndGet(-text.length());
+            sb.append(text);
+        }
+
+        if (sb.length() >= MAX_CHARACTERS) {
+            // Everything already shown would be removed anyway, so only the tail of the new output is set.
+            int start = sb.indexOf("\n", sb.length() - MAX_CHARACTERS) + 1;
+            this.textArea.setText(sb.substring(start));
+            return;
+        }
+        this.textArea.append(sb.toString());
+
+        int excess = this.textArea.getDocument().getLength() - MAX_CHARACTERS;
+        if (excess > 0) {
+            try {
+                int end = this.textArea.getLineEndOffset(this.textArea.getLineOfOffset(excess));
+                this.textArea.replaceRange(null, 0, end);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Discards all queued text, and clears the text area. Must be called on the Event Dispatch Thread.
+     */
+    void clear() {
+        String text;
+        while ((text = this.pending.poll()) != null) {
+            this.pendingCharacters.addAndGet(-text.length());
+        }
+        this.textArea.setText(null);
+    }
+
+}
@@ -0,0 +1,56 @@
+package nl.andrewlalis;
+
+import java.util.function.Consumer;
+
+/**
+ * An output sink which indents each line of text it is given, and passes the result on to some consumer.
+ */
+class TextOutputSink implements OutputSink {
+
+    private final Consumer<String> consumer;
+    private String indentPrefix = "";
+
+    /**
+     * @param consumer The consumer which receives the indented text, one or more complete lines at a time.
+     */
+    TextOutputSink(Consumer<String> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public synchronized void indentOutput() {
+        this.indentPrefix += '\t';
+    }
+
+    @Override
+    public synchronized void unindentOutput() {
+        if (!this.indentPrefix.isEmpty()) {
+            this.indentPrefix = this.indentPrefix.substring(1);
+        }
+    }
+
+    @Override
+    public synchronized void appendOutput(String text) {
+        int lineCount = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lineCount++;
+            }
+        }
+        StringBuilder sb = new StringBuilder(text.length() + lineCount * (this.indentPrefix.length() + 1));
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            sb.append(this.indentPrefix).append(text, start, end).append('\n');
+            start = end + 1;
+        }
+        if (text.isEmpty()) {
+            sb.append(this.indentPrefix).append('\n');
+        }
+        this.consumer.accept(sb.toString());
+    }
+
+}
@@ -1,13 +1,20 @@
 package nl.andrewlalis;
 
+import nl.andrewlalis.log.ExecutionLog;
+import nl.andrewlalis.log.PerformanceVerdict;
+import nl.andrewlalis.sql.MappedScript;
+import nl.andrewlalis.sql.SqlLexer;
 import nl.andrewlalis.util.FileLoader;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.text.DefaultCaret;
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
-public class Window extends JFrame {
+public class Window extends JFrame implements OutputHandler {
     private JPanel mainPanel;
     private JPanel inputPanel;
     private JPanel outputPanel;
@@ -30,6 +37,7 @@ public class Window extends JFrame {
     private JButton loadInitializationFromFileButton;
     private JButton clearTestingButton;
     private JButton clearTemplateButton;
+    private JButton clearInitializationButton;
 
     static final int OUTPUT_GENERAL = 0;
     static final int OUTPUT_TEMPLATE = 1;
@@ -37,9 +45,47 @@ public class Window extends JFrame {
 
     static final String DB_TEMPLATE = "sql_assess_template";
     static final String DB_TESTING = "sql_assess_testing";
+    static final String DB_SHARED = "sql_assess_shared";
 
-    private int outputChannel;
-    private int outputIndent;
+    /**
+     * The number of times per second that queued output is appended to the output text areas.
+     */
+    private static final int OUTPUT_FRAME_RATE = 30;
+
+    /**
+     * Files larger than this are run straight from the file, instead of being loaded into a text area.
+     */
+    private static final long LARGE_SCRIPT_BYTES = 1024 * 1024;
+
+    /**
+     * The number of bytes at the start of a large script which are shown in its text area.
+     */
+    private static final int PREVIEW_BYTES = 16 * 1024;
+
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    private final TemplateCache templateCache = new TemplateCache(TemplateCache.defaultDirectory());
+    private final Metrics metrics = new Metrics();
+    private final IncrementalSession incrementalSession = new IncrementalSession();
+
+    // Whether comparisons run on in-memory databases in this process, instead of the PostgreSQL server.
+    private boolean useInMemoryBackend;
+    // Whether updates are judged by the end state of the tables, instead of one by one.
+    private boolean compareEndState;
+    // Whether the cost of each query is compared with the cost of the template's query.
+    private boolean compareCost;
+    // Whether testing SQL continues from the first statement which changed since the last comparison.
+    private boolean incrementalRegrading;
+
+    private final TextAreaOutput generalOutput;
+    private final TextAreaOutput templateOutput;
+    private final TextAreaOutput testingOutput;
+
+    // The large scripts which are run instead of the text of their text areas, which only show a preview.
+    private final Map<JTextArea, MappedScript> largeScripts = new HashMap<>();
+
+    // The logs of the last comparison, which are kept so that their results can be viewed in full.
+    private ExecutionLog lastTemplateLog;
+    private ExecutionLog lastTestingLog;
 
     Window(String applicationName) {
         super(applicationName);
@@ -48,86 +94,181 @@ public class Window extends JFrame {
         DefaultCaret caret = (DefaultCaret) this.outputTextArea.getCaret();
         caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
 
+        // Output may be written from any thread, so it is queued and appended on the Event Dispatch Thread.
+        this.generalOutput = new TextAreaOutput(this.outputTextArea);
+        this.templateOutput = new TextAreaOutput(this.templateOutputTextArea);
+        this.testingOutput = new TextAreaOutput(this.testingOutputTextArea);
+        Timer outputTimer = new Timer(1000 / OUTPUT_FRAME_RATE, actionEvent -> {
+            this.generalOutput.flush();
+            this.templateOutput.flush();
+            this.testingOutput.flush();
+        });
+        outputTimer.start();
+
         // Setup default SQL values.
         this.fillDefaultSQL();
 
-        this.setOutputChannel(OUTPUT_GENERAL);
-
         this.setContentPane(mainPanel);
+        this.setJMenuBar(this.createMenuBar());
 
         executeButton.addActionListener(actionEvent -> this.executeSQL());
 
         clearOutputButton.addActionListener(actionEvent -> {
-            this.templateOutputTextArea.setText(null);
-            this.testingOutputTextArea.setText(null);
-            this.outputTextArea.setText(null);
+            this.templateOutput.clear();
+            this.testingOutput.clear();
+            this.generalOutput.clear();
         });
 
         loadInitializationFromFileButton.addActionListener(actionEvent -> this.fillSQLFromFileChooser(this.initializationTextArea));
         loadTemplateFromFileButton.addActionListener(actionEvent -> this.fillSQLFromFileChooser(this.templateTextArea));
         loadTestingFromFileButton.addActionListener(actionEvent -> this.fillSQLFromFileChooser(this.testingTextArea));
-        clearTemplateButton.addActionListener(actionEvent -> this.templateTextArea.setText(null));
-        clearTestingButton.addActionListener(actionEvent -> this.testingTextArea.setText(null));
+        clearTemplateButton.addActionListener(actionEvent -> {
+            this.detachLargeScript(this.templateTextArea);
+            this.templateTextArea.setText(null);
+        });
+        clearTestingButton.addActionListener(actionEvent -> {
+            this.detachLargeScript(this.testingTextArea);
+            this.testingTextArea.setText(null);
+        });
+        clearInitializationButton.addActionListener(actionEvent -> {
+            this.detachLargeScript(this.initializationTextArea);
+            this.initializationTextArea.setText(null);
+        });
     }
 
     /**
      * Executes the SQL in the two text areas, and provides output.
      */
     private void executeSQL() {
-        this.setOutputChannel(OUTPUT_GENERAL);
-        String host = this.hostTextField.getText();
-        int port = Integer.parseInt(this.portTextField.getText());
-        String user = this.userTextField.getText();
-        String password = this.passwordTextField.getText();
-        String initialization = this.initializationTextArea.getText();
-
-        DatabaseHelper helper = new DatabaseHelper(host, port, user, password, this);
-        helper.executeSQLComparison(initialization, this.templateTextArea.getText(), this.testingTextArea.getText());
+        DatabaseBackend backend;
+        if (this.useInMemoryBackend) {
+            backend = new InMemoryBackend();
+        } else {
+            String host = this.hostTextField.getText();
+            int port = Integer.parseInt(this.portTextField.getText());
+            String user = this.userTextField.getText();
+            String password = this.passwordTextField.getText();
+            backend = new PostgresBackend(host, port, user, password);
+        }
+        CharSequence initialization = this.scriptOf(this.initializationTextArea);
+
+        DatabaseHelper helper = new DatabaseHelper(backend, this, this.connectionPool);
+        helper.setTemplateCache(this.templateCache);
+        helper.setMetrics(this.metrics);
+        helper.setCompareEndState(this.compareEndState);
+        helper.setMaxCostRatio(this.compareCost ? PerformanceVerdict.DEFAULT_MAX_RATIO : 0);
+        if (this.incrementalRegrading) {
+            helper.setIncrementalSession(this.incrementalSession);
+        }
+        helper.executeSQLComparison(initialization, this.scriptOf(this.templateTextArea), this.scriptOf(this.testingTextArea));
     }
 
-    int getOutputChannel() {
-        return this.outputChannel;
+    /**
+     * @param textArea One of the SQL text areas.
+     * @return The large script which was loaded into the text area, or else the text area's text.
+     */
+    private CharSequence scriptOf(JTextArea textArea) {
+        MappedScript script = this.largeScripts.get(textArea);
+        return script != null ? script : textArea.getText();
     }
 
-    void setOutputChannel(int channel) {
-        this.outputChannel = channel;
+    @Override
+    public OutputSink openSink(int channel) {
+        switch (channel) {
+            case OUTPUT_TEMPLATE:
+                return new TextOutputSink(this.templateOutput);
+            case OUTPUT_TESTING:
+                return new TextOutputSink(this.testingOutput);
+            default:
+                return new TextOutputSink(this.generalOutput);
+        }
     }
 
-    void indentOutput() {
-        this.outputIndent++;
+    @Override
+    public void publishLogs(ExecutionLog templateLog, ExecutionLog testingLog) {
+        SwingUtilities.invokeLater(() -> {
+            if (this.lastTemplateLog != null) {
+                this.lastTemplateLog.release();
+                this.lastTestingLog.release();
+            }
+            this.lastTemplateLog = templateLog;
+            this.lastTestingLog = testingLog;
+        });
     }
 
-    void unindentOutput() {
-        this.outputIndent--;
+    private JMenuBar createMenuBar() {
+        JMenu resultsMenu = new JMenu("Results");
+        JMenuItem templateItem = new JMenuItem("View Template Results");
+        templateItem.addActionListener(actionEvent -> this.showResults("Template Results", this.lastTemplateLog));
+        resultsMenu.add(templateItem);
+        JMenuItem testingItem = new JMenuItem("View Testing Results");
+        testingItem.addActionListener(actionEvent -> this.showResults("Testing Results", this.lastTestingLog));
+        resultsMenu.add(testingItem);
+        resultsMenu.addSeparator();
+        JMenuItem metricsItem = new JMenuItem("Export Metrics...");
+        metricsItem.addActionListener(actionEvent -> this.exportMetrics());
+        resultsMenu.add(metricsItem);
+
+        JMenu databaseMenu = new JMenu("Database");
+        ButtonGroup backendGroup = new ButtonGroup();
+        JRadioButtonMenuItem serverItem = new JRadioButtonMenuItem("PostgreSQL Server", true);
+        serverItem.addActionListener(actionEvent -> this.useInMemoryBackend = false);
+        JRadioButtonMenuItem inMemoryItem = new JRadioButtonMenuItem("In-Memory (H2, PostgreSQL Mode)");
+        inMemoryItem.addActionListener(actionEvent -> this.useInMemoryBackend = true);
+        backendGroup.add(serverItem);
+        backendGroup.add(inMemoryItem);
+        databaseMenu.add(serverItem);
+        databaseMenu.add(inMemoryItem);
+        databaseMenu.addSeparator();
+        JCheckBoxMenuItem endStateItem = new JCheckBoxMenuItem("Compare End State of Tables");
+        endStateItem.addActionListener(actionEvent -> this.compareEndState = endStateItem.isSelected());
+        databaseMenu.add(endStateItem);
+        JCheckBoxMenuItem costItem = new JCheckBoxMenuItem("Compare Query Cost");
+        costItem.addActionListener(actionEvent -> this.compareCost = costItem.isSelected());
+        databaseMenu.add(costItem);
+        JCheckBoxMenuItem incrementalItem = new JCheckBoxMenuItem("Incremental Re-Grading");
+        incrementalItem.addActionListener(actionEvent -> {
+            this.incrementalRegrading = incrementalItem.isSelected();
+            if (!this.incrementalRegrading) {
+                synchronized (this.incrementalSession) {
+                    this.incrementalSession.close();
+                }
+            }
+        });
+        databaseMenu.add(incrementalItem);
+
+        JMenuBar menuBar = new JMenuBar();
+        menuBar.add(databaseMenu);
+        menuBar.add(resultsMenu);
+        return menuBar;
     }
 
     /**
-     * Adds some text to the current output channel, followed by a new line.
-     * @param text The text to append.
+     * Opens a dialog which shows the full query results of the last comparison.
+     * @param title The title of the dialog.
+     * @param log The log whose results to show, or null if no comparison has finished yet.
      */
-    void appendOutput(String text) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < this.outputIndent; i++) {
-            sb.append('\t');
-        }
-        String tabs = sb.toString();
-        StringBuilder resultSb = new StringBuilder();
-        for (String line : text.split("\n")) {
-            resultSb.append(tabs).append(line).append('\n');
+    private void showResults(String title, ExecutionLog log) {
+        if (log == null) {
+            JOptionPane.showMessageDialog(this, "No comparison has been run yet.", title, JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
-        String result = resultSb.toString();
-        switch (this.outputChannel) {
-            case OUTPUT_GENERAL:
-                this.outputTextArea.append(result);
-                break;
-
-            case OUTPUT_TEMPLATE:
-                this.templateOutputTextArea.append(result);
-                break;
+        new ResultViewer(this, title, log).setVisible(true);
+    }
 
-            case OUTPUT_TESTING:
-                this.testingOutputTextArea.append(result);
-                break;
+    /**
+     * Asks for a file, and writes the metrics of all comparisons run so far to it.
+     */
+    private void exportMetrics() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter("JSON or CSV", "json", "csv"));
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            try {
+                this.metrics.write(fileChooser.getSelectedFile());
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, "Could not write metrics: " + e.getMessage(), "Export Metrics",
+                        JOptionPane.ERROR_MESSAGE);
+            }
         }
     }
 
@@ -140,7 +281,7 @@ public class Window extends JFrame {
             this.templateTextArea.setText(FileLoader.readResource("template.sql"));
             this.testingTextArea.setText(FileLoader.readResource("example_test.sql"));
         } catch (IOException e) {
-            this.appendOutput("Could not load default SQL resources.");
+            this.openSink(OUTPUT_GENERAL).appendOutput("Could not load default SQL resources.");
             e.printStackTrace();
         }
     }
@@ -150,7 +291,58 @@ public class Window extends JFrame {
         fileChooser.setFileFilter(new FileNameExtensionFilter("SQL", "sql"));
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            textArea.setText(FileLoader.readFile(fileChooser.getSelectedFile()));
+            File file = fileChooser.getSelectedFile();
+            if (file.length() > LARGE_SCRIPT_BYTES) {
+                this.loadLargeScript(textArea, file);
+            } else {
+                this.detachLargeScript(textArea);
+                textArea.setText(FileLoader.readFile(file));
+            }
+        }
+    }
+
+    /**
+     * Loads a large script, which is mapped into memory and run straight from the file when SQL is executed. Only a
+     * preview and the number of statements are shown in the text area, which cannot be edited until the script is
+     * cleared or another file is loaded.
+     * @param textArea The text area to load the script into.
+     * @param file The script file.
+     */
+    private void loadLargeScript(JTextArea textArea, File file) {
+        MappedScript script;
+        try {
+            script = MappedScript.open(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not open script: " + e.getMessage(), "Load SQL",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        this.largeScripts.put(textArea, script);
+        textArea.setEditable(false);
+        textArea.setText("-- Counting the statements in " + file.getName() + "...");
+        // Counting the statements means scanning the whole file, which is done outside of the Event Dispatch Thread.
+        new Thread(() -> {
+            int statementCount = SqlLexer.count(script);
+            String preview = script.preview(PREVIEW_BYTES);
+            SwingUtilities.invokeLater(() -> {
+                if (this.largeScripts.get(textArea) != script) {
+                    return;
+                }
+                textArea.setText(String.format("-- %s (%,d bytes, %,d statements) is run straight from the file.%n"
+                                + "-- Only its start is shown here. Clear it or load another file to edit SQL again.%n%n%s",
+                        file.getName(), file.length(), statementCount, preview));
+                textArea.setCaretPosition(0);
+            });
+        }).start();
+    }
+
+    /**
+     * Stops running the large script which was loaded into a text area, if any, so that its text is run again.
+     * @param textArea The text area.
+     */
+    private void detachLargeScript(JTextArea textArea) {
+        if (this.largeScripts.remove(textArea) != null) {
+            textArea.setEditable(true);
         }
     }
 }
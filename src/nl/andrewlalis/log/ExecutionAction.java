@@ -1,7 +1,18 @@
 package nl.andrewlalis.log;
 
+import java.io.Serializable;
+
 /**
  * Represents an action performed on a database.
  */
-public abstract class ExecutionAction {
+public abstract class ExecutionAction implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Releases any resources held by this action, such as temporary files, once it is no longer needed.
+     */
+    public void release() {
+    }
+
 }
@@ -1,14 +1,21 @@
 package nl.andrewlalis.log;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.BiPredicate;
 
 /**
  * Contains a log of all actions performed to a database.
  */
-public class ExecutionLog {
+public class ExecutionLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private List<ExecutionAction> actions;
+    private boolean complete = true;
+    private PerformanceVerdict performanceVerdict;
 
     public ExecutionLog() {
         this.actions = new ArrayList<>();
@@ -18,35 +25,83 @@ public class ExecutionLog {
         this.actions.add(action);
     }
 
-    private List<ExecutionAction> getActions() {
-        return this.actions;
+    /**
+     * Marks this log as incomplete, because not all statements could be run due to a problem with the database.
+     */
+    public void markIncomplete() {
+        this.complete = false;
     }
 
-    @Override
-    public boolean equals(Object other) {
-        if (!(other instanceof ExecutionLog)) {
-            return false;
-        }
+    public boolean isComplete() {
+        return this.complete;
+    }
 
-        ExecutionLog otherLog = (ExecutionLog) other;
+    /**
+     * @return How the cost of the queries in this log compares with the template's, or null if it was not compared.
+     */
+    public PerformanceVerdict getPerformanceVerdict() {
+        return this.performanceVerdict;
+    }
 
-        if (otherLog.getActions().size() != this.getActions().size()) {
-            System.out.println("Size difference in logs.");
-            return false;
+    public void setPerformanceVerdict(PerformanceVerdict performanceVerdict) {
+        this.performanceVerdict = performanceVerdict;
+    }
+
+    /**
+     * @return The actions in this log, in the order in which they were performed.
+     */
+    public List<ExecutionAction> getActions() {
+        return Collections.unmodifiableList(this.actions);
+    }
+
+    /**
+     * Releases the resources held by all actions in this log, after which it may no longer be used.
+     */
+    public void release() {
+        for (ExecutionAction action : this.actions) {
+            action.release();
         }
+    }
+
+    /**
+     * Finds the first action in which this log differs from another.
+     * @param other The other log.
+     * @return The index of the first action which is not equal in both logs, or -1 if the logs are equal. If one log
+     * has fewer actions than the other but is otherwise equal, this is the number of actions in the shorter log.
+     */
+    public int firstDifference(ExecutionLog other) {
+        return this.firstDifference(other, ExecutionAction::equals);
+    }
 
-        List<ExecutionAction> otherLogActions = otherLog.getActions();
+    /**
+     * Finds the first action in which this log differs from another, using a particular way of comparing actions.
+     * @param other The other log.
+     * @param equality Tells whether an action of this log is equal to the action of the other log at the same index.
+     * @return The index of the first action which is not equal in both logs, or -1 if the logs are equal. If one log
+     * has fewer actions than the other but is otherwise equal, this is the number of actions in the shorter log.
+     */
+    public int firstDifference(ExecutionLog other, BiPredicate<ExecutionAction, ExecutionAction> equality) {
+        List<ExecutionAction> otherLogActions = other.getActions();
+        int commonSize = Math.min(this.actions.size(), otherLogActions.size());
 
-        for (int i = 0; i < this.getActions().size(); i++) {
-            ExecutionAction myAction = this.getActions().get(i);
-            ExecutionAction theirAction = otherLogActions.get(i);
-            System.out.println("My action: " + myAction + "\nTheir action: " + theirAction);
-            System.out.println("\tEqual? " + myAction.equals(theirAction));
-            if (!myAction.equals(theirAction)) {
-                return false;
+        for (int i = 0; i < commonSize; i++) {
+            if (!equality.test(this.actions.get(i), otherLogActions.get(i))) {
+                return i;
             }
         }
 
-        return true;
+        return this.actions.size() == otherLogActions.size() ? -1 : commonSize;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ExecutionLog)) {
+            return false;
+        }
+
+        ExecutionLog otherLog = (ExecutionLog) other;
+
+        // Logs of different sizes can never be equal, so this is checked before comparing any actions.
+        return otherLog.actions.size() == this.actions.size() && this.firstDifference(otherLog) == -1;
     }
 }
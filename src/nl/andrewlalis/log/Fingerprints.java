@@ -0,0 +1,127 @@
+package nl.andrewlalis.log;
+
+import java.sql.Types;
+
+/**
+ * Computes 64-bit fingerprints of the values in a column of a result set. Two columns which contain the same values
+ * always have the same fingerprint, so columns can be paired up by looking up their fingerprints, and only need to be
+ * compared value by value when their fingerprints are equal.
+ */
+final class Fingerprints {
+
+    /**
+     * The kinds of values which are hashed differently, determined by the SQL type of their column.
+     */
+    static final int KIND_LONG = 0;
+    static final int KIND_DOUBLE = 1;
+    static final int KIND_TEXT = 2;
+
+    private static final long NULL_HASH = 0x9E3779B97F4A7C15L;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private Fingerprints() {
+    }
+
+    /**
+     * Hashes a single value of a column.
+     * @param value The value, as a string, or null for SQL NULL.
+     * @return The hash of the value.
+     */
+    static long hash(String value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Hashes a single value of a column, given as the text which the database returned for it. The result is the same
+     * as the hash of the value when it is stored in its typed form.
+     * @param kind The kind of value, as given by {@link #kindOf(int)}.
+     * @param value The value, as a string, or null for SQL NULL.
+     * @return The hash of the value.
+     */
+    static long hash(int kind, String value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        switch (kind) {
+            case KIND_LONG:
+                return mix(Long.parseLong(value));
+            case KIND_DOUBLE:
+                return mix(Double.doubleToLongBits(Double.parseDouble(value)));
+            default:
+                return hash(value);
+        }
+    }
+
+    /**
+     * Gets the kind of values stored in a column of the given SQL type.
+     * @param sqlType One of the constants in {@link java.sql.Types}.
+     * @return The kind of value.
+     */
+    static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return KIND_LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return KIND_DOUBLE;
+            default:
+                return KIND_TEXT;
+        }
+    }
+
+    /**
+     * Formats a floating point value the same way for every kind of result, with whole numbers shown without a
+     * fraction, as the database itself would show them.
+     */
+    static String formatDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Adds a value's hash to an order-independent fingerprint, in which every permutation of the same values gives the
+     * same result.
+     */
+    static long addUnordered(long fingerprint, long valueHash) {
+        return fingerprint + valueHash;
+    }
+
+    /**
+     * Adds a value's hash to an order-dependent fingerprint.
+     */
+    static long addOrdered(long fingerprint, long valueHash) {
+        return mix(fingerprint ^ valueHash) + valueHash;
+    }
+
+    /**
+     * Combines a column's SQL type with its fingerprint, to get a key under which matching columns can be found.
+     */
+    static long key(int sqlType, long fingerprint) {
+        return mix(fingerprint + sqlType);
+    }
+
+    /**
+     * The finalizer of the SplitMix64 generator, which spreads the bits of its input over the whole output.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,273 @@
+package nl.andrewlalis.log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * An append-only store of execution logs on disk, in a compact binary form, so that stored logs can be compared again
+ * later without any database. Logs are appended to a data file one after the other, and an index file records where
+ * the log of each key starts and how long it is. Storing a log under a key which was used before replaces the earlier
+ * log. Query results are written column by column, so that they are read back in bulk from a memory-mapped region of
+ * the data file.
+ */
+public class LogStore implements Closeable {
+
+    private static final String DATA_FILE = "logs.dat";
+    private static final String INDEX_FILE = "logs.idx";
+    private static final int MAGIC = 0x53514C47;
+    private static final short VERSION = 2;
+    private static final int HEADER_LENGTH = Integer.BYTES + Short.BYTES;
+
+    private static final byte FLAG_COMPLETE = 1;
+
+    private static final byte TAG_UPDATE = 1;
+    private static final byte TAG_QUERY = 2;
+    private static final byte TAG_TIMED_OUT = 3;
+    private static final byte TAG_TABLE_STATE = 4;
+
+    private final FileChannel data;
+    private final DataOutputStream index;
+
+    /**
+     * The offset and length of the latest log of each key.
+     */
+    private final Map<String, long[]> entries = new HashMap<>();
+    private long dataLength;
+
+    private LogStore(FileChannel data, DataOutputStream index) {
+        this.data = data;
+        this.index = index;
+    }
+
+    /**
+     * Opens a store, creating it if it does not exist yet. A log which was only partly written, because the process
+     * writing it was stopped, is discarded.
+     * @param directory The directory of the store.
+     * @return The store.
+     * @throws IOException If the store could not be opened, or the directory contains something else.
+     */
+    public static LogStore open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create log store directory " + directory);
+        }
+        FileChannel data = FileChannel.open(new File(directory, DATA_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (data.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putShort(VERSION);
+                header.flip();
+                writeFully(data, header, 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                data.read(header, 0);
+                header.flip();
+                if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC || header.getShort() != VERSION) {
+                    throw new IOException(directory + " is not a log store, or was written by another version.");
+                }
+            }
+
+            File indexFile = new File(directory, INDEX_FILE);
+            Map<String, long[]> entries = new HashMap<>();
+            long dataLength = HEADER_LENGTH;
+            long indexLength = 0;
+            if (indexFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                    while (true) {
+                        int keyLength = in.readInt();
+                        byte[] key = new byte[keyLength];
+                        in.readFully(key);
+                        long offset = in.readLong();
+                        int length = in.readInt();
+                        if (offset + length > data.size()) {
+                            break;
+                        }
+                        entries.put(new String(key, StandardCharsets.UTF_8), new long[]{offset, length});
+                        dataLength = Math.max(dataLength, offset + length);
+                        indexLength += Integer.BYTES + keyLength + Long.BYTES + Integer.BYTES;
+                    }
+                } catch (EOFException e) {
+                    // The index ends here; anything after the last complete entry is discarded below.
+                }
+            }
+            try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+                file.setLength(indexLength);
+            }
+            data.truncate(dataLength);
+
+            LogStore store = new LogStore(data, new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true))));
+            store.entries.putAll(entries);
+            store.dataLength = dataLength;
+            return store;
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a log to the store. Query results which are kept on disk instead of in memory cannot be stored.
+     * @param key The key under which to store the log, replacing any log which was stored under it before.
+     * @param log The log to store.
+     * @throws IOException If the log could not be written, or contains results which cannot be stored.
+     */
+    public void append(String key, ExecutionLog log) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(log.isComplete() ? FLAG_COMPLETE : 0);
+        List<ExecutionAction> actions = log.getActions();
+        out.writeInt(actions.size());
+        for (ExecutionAction action : actions) {
+            writeAction(out, action);
+        }
+        out.flush();
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+
+        synchronized (this) {
+            long offset = this.dataLength;
+            writeFully(this.data, record, offset);
+            this.dataLength += record.capacity();
+            writeString(this.index, key);
+            this.index.writeLong(offset);
+            this.index.writeInt(record.capacity());
+            this.index.flush();
+            this.entries.put(key, new long[]{offset, record.capacity()});
+        }
+    }
+
+    /**
+     * @return The keys of all stored logs, in ascending order.
+     */
+    public synchronized List<String> keys() {
+        List<String> keys = new ArrayList<>(this.entries.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Reads a stored log.
+     * @param key The key under which the log was stored.
+     * @return The log, or null if no log was stored under the key.
+     * @throws IOException If the log could not be read.
+     */
+    public ExecutionLog read(String key) throws IOException {
+        long[] entry;
+        synchronized (this) {
+            entry = this.entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer buffer = this.data.map(FileChannel.MapMode.READ_ONLY, entry[0], entry[1]);
+        try {
+            ExecutionLog log = new ExecutionLog();
+            if ((buffer.get() & FLAG_COMPLETE) == 0) {
+                log.markIncomplete();
+            }
+            int actionCount = buffer.getInt();
+            for (int i = 0; i < actionCount; i++) {
+                log.recordAction(readAction(buffer));
+            }
+            return log;
+        } catch (RuntimeException e) {
+            throw new IOException("The stored log of " + key + " is damaged.", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.index.close();
+        } finally {
+            this.data.close();
+        }
+    }
+
+    private static void writeAction(DataOutputStream out, ExecutionAction action) throws IOException {
+        if (action instanceof UpdateAction) {
+            out.writeByte(TAG_UPDATE);
+            out.writeInt(((UpdateAction) action).getRowsAffected());
+        } else if (action instanceof QueryAction) {
+            QueryAction queryAction = (QueryAction) action;
+            if (!(queryAction.getResult() instanceof ResultSnapshot)) {
+                throw new IOException("Query results which are kept on disk cannot be stored.");
+            }
+            out.writeByte(TAG_QUERY);
+            out.writeBoolean(queryAction.isOrdered());
+            // The memo key is not stored, so that stored results are always compared by their values.
+            ((ResultSnapshot) queryAction.getResult()).writeTo(out);
+        } else if (action instanceof TimedOutAction) {
+            out.writeByte(TAG_TIMED_OUT);
+            out.writeLong(((TimedOutAction) action).getElapsedMillis());
+        } else if (action instanceof TableStateAction) {
+            Map<String, String> digests = ((TableStateAction) action).getDigests();
+            out.writeByte(TAG_TABLE_STATE);
+            out.writeInt(digests.size());
+            for (Map.Entry<String, String> digest : digests.entrySet()) {
+                writeString(out, digest.getKey());
+                writeString(out, digest.getValue());
+            }
+        } else {
+            throw new IOException("Actions of type " + action.getClass().getSimpleName() + " cannot be stored.");
+        }
+    }
+
+    private static ExecutionAction readAction(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_UPDATE:
+                // The statement itself is not stored, since it plays no part in comparisons.
+                return new UpdateAction(buffer.getInt(), null);
+            case TAG_QUERY:
+                boolean ordered = buffer.get() != 0;
+                return new QueryAction(ResultSnapshot.readFrom(buffer), ordered);
+            case TAG_TIMED_OUT:
+                return new TimedOutAction(buffer.getLong());
+            case TAG_TABLE_STATE:
+                int tableCount = buffer.getInt();
+                Map<String, String> digests = new HashMap<>();
+                for (int i = 0; i < tableCount; i++) {
+                    digests.put(readString(buffer), readString(buffer));
+                }
+                return new TableStateAction(digests);
+            default:
+                throw new IllegalStateException("Unknown action tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a string, which may be null, as its length followed by its UTF-8 bytes.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string which was written by {@link #writeString(DataOutput, String)}.
+     */
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package nl.andrewlalis.log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Judges whether assessed SQL is about as efficient as the template, by comparing the cost of each query with the
+ * cost of the template's query at the same position. A query is too slow if its estimated cost or the total number of
+ * blocks it touched is more than a given factor of the template's. The template's costs may come from the template
+ * cache, so they may have been measured at another time or on another server, with other data in its caches. Execution
+ * times and the split between cached and read blocks therefore cannot be compared, and times are only shown.
+ */
+public class PerformanceVerdict implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The factor by which a query may be more costly than the template's, unless another is given.
+     */
+    public static final double DEFAULT_MAX_RATIO = 10;
+
+    // Costs below these are too small to tell apart reliably, so they are treated as equal.
+    private static final double MIN_ESTIMATED_COST = 10;
+    private static final double MIN_BLOCKS = 10;
+
+    private final double maxRatio;
+    private final int comparedCount;
+    private final double worstRatio;
+    private final List<String> slowQueries;
+
+    private PerformanceVerdict(double maxRatio, int comparedCount, double worstRatio, List<String> slowQueries) {
+        this.maxRatio = maxRatio;
+        this.comparedCount = comparedCount;
+        this.worstRatio = worstRatio;
+        this.slowQueries = slowQueries;
+    }
+
+    /**
+     * Compares the costs of the queries in two logs. Only queries whose cost was measured on both sides are compared.
+     * @param template The template's log.
+     * @param testing The log of the SQL being assessed.
+     * @param maxRatio The factor by which a query may be more costly than the template's.
+     * @return The verdict.
+     */
+    public static PerformanceVerdict compare(ExecutionLog template, ExecutionLog testing, double maxRatio) {
+        List<ExecutionAction> templateActions = template.getActions();
+        List<ExecutionAction> testingActions = testing.getActions();
+        int comparedCount = 0;
+        double worstRatio = 0;
+        List<String> slowQueries = new ArrayList<>();
+        for (int i = 0; i < Math.min(templateActions.size(), testingActions.size()); i++) {
+            if (!(templateActions.get(i) instanceof QueryAction) || !(testingActions.get(i) instanceof QueryAction)) {
+                continue;
+            }
+            QueryCost mine = ((QueryAction) templateActions.get(i)).getCost();
+            QueryCost theirs = ((QueryAction) testingActions.get(i)).getCost();
+            if (mine == null || theirs == null) {
+                continue;
+            }
+            comparedCount++;
+            double ratio = Math.max(ratio(mine.getEstimatedCost(), theirs.getEstimatedCost(), MIN_ESTIMATED_COST),
+                    ratio(mine.getBlocks(), theirs.getBlocks(), MIN_BLOCKS));
+            worstRatio = Math.max(worstRatio, ratio);
+            if (ratio > maxRatio) {
+                slowQueries.add(String.format("Statement %d is %.1f times as costly as the template's: estimated cost "
+                                + "%.2f instead of %.2f, %d blocks instead of %d (%.3f ms, against %.3f ms for the template).",
+                        i + 1, ratio, theirs.getEstimatedCost(), mine.getEstimatedCost(), theirs.getBlocks(),
+                        mine.getBlocks(), theirs.getExecutionMillis(), mine.getExecutionMillis()));
+            }
+        }
+        return new PerformanceVerdict(maxRatio, comparedCount, worstRatio, slowQueries);
+    }
+
+    private static double ratio(double mine, double theirs, double minimum) {
+        return Math.max(theirs, minimum) / Math.max(mine, minimum);
+    }
+
+    /**
+     * @return True if no query is more costly than the template's by more than the allowed factor.
+     */
+    public boolean isAcceptable() {
+        return this.slowQueries.isEmpty();
+    }
+
+    /**
+     * @return The number of queries whose costs were compared.
+     */
+    public int getComparedCount() {
+        return this.comparedCount;
+    }
+
+    /**
+     * @return A description of each query which is too costly.
+     */
+    public List<String> getSlowQueries() {
+        return Collections.unmodifiableList(this.slowQueries);
+    }
+
+    @Override
+    public String toString() {
+        if (this.comparedCount == 0) {
+            return "Performance test result: no query costs could be compared.";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String slowQuery : this.slowQueries) {
+            sb.append(slowQuery).append('\n');
+        }
+        sb.append(String.format("Performance test result: %s (%d queries compared, at most %.1f times as costly as "
+                        + "the template's, %.1f allowed)", this.isAcceptable() ? "acceptable" : "too slow",
+                this.comparedCount, this.worstRatio, this.maxRatio));
+        return sb.toString();
+    }
+
+}
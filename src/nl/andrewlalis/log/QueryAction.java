@@ -1,29 +1,90 @@
 package nl.andrewlalis.log;
 
+import java.io.IOException;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
- * An action in which a query result set is returned. Note that SCROLL_INSENSITIVE statements must be used, otherwise
- * an SQL exception will be thrown at each attempt to go through the result set.
+ * An action in which a query result set is returned. The result set is read into a snapshot as soon as the action is
+ * created, so any kind of statement may be used to execute the query.
  */
 public class QueryAction extends ExecutionAction {
 
-    private ResultSet resultSet;
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of rows shown in the textual representation of a result. The full result can be viewed elsewhere.
+     */
+    private static final int MAX_DISPLAYED_ROWS = 20;
+
+    private QueryResult result;
     private boolean isOrdered;
 
-    public QueryAction(ResultSet resultSet, boolean isOrdered) {
-        this.resultSet = resultSet;
+    /**
+     * Identifies the read-only query and the unmodified data which produced the result, or null if the result may
+     * depend on changes made before the query. The key plays no part in equality, so results are always compared by
+     * their values.
+     */
+    private String memoKey;
+
+    /**
+     * The measured cost of the query, or null if it was not measured. The cost plays no part in equality.
+     */
+    private QueryCost cost;
+
+    /**
+     * Constructs the action by reading all rows of the given result set, which is closed afterwards.
+     * @param resultSet The result set returned by the query.
+     * @param isOrdered Whether the query specified an order for its rows.
+     * @throws SQLException If the result set could not be read.
+     */
+    public QueryAction(ResultSet resultSet, boolean isOrdered) throws SQLException {
+        try {
+            this.result = ResultSnapshot.read(resultSet);
+        } finally {
+            resultSet.close();
+        }
+        this.isOrdered = isOrdered;
+    }
+
+    public QueryAction(QueryResult result, boolean isOrdered) {
+        this.result = result;
         this.isOrdered = isOrdered;
     }
 
+    public QueryResult getResult() {
+        return this.result;
+    }
+
+    public boolean isOrdered() {
+        return this.isOrdered;
+    }
+
+    public String getMemoKey() {
+        return this.memoKey;
+    }
+
+    public void setMemoKey(String memoKey) {
+        this.memoKey = memoKey;
+    }
+
+    public QueryCost getCost() {
+        return this.cost;
+    }
+
+    public void setCost(QueryCost cost) {
+        this.cost = cost;
+    }
+
     /**
      * The algorithm to determine if two query sets are equivalent is as follows:
      *      If all of the values of one column contain all of the values of another column, then these two columns must
      *      almost certainly represent the same value, even if in the wrong order.
+     *
+     * To find such pairs of columns quickly, each column has a fingerprint which is independent of the order of the
+     * values, unless either query is ordered. Columns are paired by their type and fingerprint, and each pair is
+     * confirmed by comparing the actual values.
      * @param other The other object to check equality with.
      * @return True if the two query sets are equivalent, or false otherwise.
      */
@@ -34,158 +95,106 @@ public class QueryAction extends ExecutionAction {
         }
 
         QueryAction otherAction = (QueryAction) other;
+        // If either query action is ordered, then require this.
+        boolean ordered = this.isOrdered || otherAction.isOrdered;
+        QueryResult mine = this.result;
+        QueryResult theirs = otherAction.result;
 
-        try {
-            ResultSetMetaData myMetaData = this.resultSet.getMetaData();
-            ResultSetMetaData theirMetaData = otherAction.resultSet.getMetaData();
-
-            if (myMetaData.getColumnCount() != theirMetaData.getColumnCount()) {
-                return false;
-            }
+        if (mine == theirs) {
+            return true;
+        }
 
-            int columnCount = myMetaData.getColumnCount();
+        if (mine.getColumnCount() != theirs.getColumnCount() || mine.getRowCount() != theirs.getRowCount()) {
+            return false;
+        }
 
-            List<Integer> myColumnsQueue = new ArrayList<>(columnCount);
-            List<Integer> theirColumnsQueue = new ArrayList<>(columnCount);
-            for (int i = 1; i <= columnCount; i++) {
-                myColumnsQueue.add(i);
-                theirColumnsQueue.add(i);
-            }
+        int columnCount = mine.getColumnCount();
 
-            while (!myColumnsQueue.isEmpty()) {
-
-                System.out.println(myColumnsQueue);
-                System.out.println(theirColumnsQueue);
-
-                // Pop the first column value.
-                int myColumn = myColumnsQueue.remove(0);
-                System.out.println("Testing my column " + myColumn);
-
-                // Find a column in their columns which has the same type as this one.
-                boolean columnMatchFound = false;
-                int failedAttempts = 0;
-                while (!theirColumnsQueue.isEmpty() && failedAttempts < myColumnsQueue.size() + 1) {
-                    int theirColumn = theirColumnsQueue.remove(0);
-                    System.out.println("\tWith their column " + theirColumn);
-                    // Check if this column is of a compatible type.
-                    if (myMetaData.getColumnType(myColumn) == theirMetaData.getColumnType(theirColumn)) {
-                        System.out.println("\t\t+ Column type matches.");
-                        // Now check if the data inside is a match.
-                        List<String> myValues = new ArrayList<>();
-                        List<String> theirValues = new ArrayList<>();
-                        this.resultSet.beforeFirst();
-                        otherAction.resultSet.beforeFirst();
-
-                        // Iterate until one of the result sets goes past the last row.
-                        while (true) {
-                            this.resultSet.next();
-                            otherAction.resultSet.next();
-                            if (this.resultSet.isAfterLast() || otherAction.resultSet.isAfterLast()) {
-                                break;
-                            }
-                            // Collect this row's values for both my column and their column.
-                            myValues.add(this.resultSet.getString(myColumn));
-                            theirValues.add(otherAction.resultSet.getString(theirColumn));
-                        }
-                        // Check if both row counts are the same; i.e. both reach the end at the same time.
-                        if (this.resultSet.isAfterLast() != otherAction.resultSet.isAfterLast()) {
-                            System.out.println("\t\t- Result sets have differing row counts!");
-                            return false;
-                        }
-
-                        // Compare the values until an error.
-                        boolean isMatch = true;
-                        int index = 0;
-                        for (String value : myValues) {
-                            // If either query action is ordered, then require this.
-                            if (this.isOrdered || otherAction.isOrdered) {
-                                if (!(myValues.get(index).equals(theirValues.get(index)))) {
-                                    System.out.println("\t\t- Their column (" + theirColumn + ") does not contain my column's (" + myColumn + ") value of " + value);
-                                    isMatch = false;
-                                    break;
-                                }
-                            } else {
-                                if (!theirValues.contains(value)) {
-                                    System.out.println("\t\t- Their column (" + theirColumn + ") does not contain my column's (" + myColumn + ") value of " + value);
-                                    isMatch = false;
-                                    break;
-                                }
-                            }
-                            index++;
-                        }
-
-                        // If the column data matches.
-                        if (isMatch) {
-                            System.out.println("\t\t+ Columns Match! Ensuring my column " + myColumn +" and their column " + theirColumn + " are not added back to the queues.");
-                            // Leave the loop knowing we found a column, without adding it back.
-                            columnMatchFound = true;
-                            break;
-                        } else {
-                            System.out.println("\t\t- Columns do not match.");
-                            // No column was found to match, so add it back to their queue.
-                            theirColumnsQueue.add(theirColumn);
-                            failedAttempts++;
-                        }
-                    } else {
-                        System.out.println("\t\t- Column types do not match.");
-                        theirColumnsQueue.add(theirColumn);
-                        failedAttempts++;
-                    }
-                }
+        // Index their columns by type and fingerprint.
+        Map<Long, List<Integer>> theirColumns = new HashMap<>();
+        for (int column = 0; column < columnCount; column++) {
+            long key = Fingerprints.key(theirs.getColumnType(column), theirs.fingerprint(column, ordered));
+            theirColumns.computeIfAbsent(key, k -> new ArrayList<>(1)).add(column);
+        }
 
-                // columnMatchFound == true when a column match has been found somewhere in other result set.
-                if (!columnMatchFound) {
-                    System.out.println("\t\t- Could not find a matching column for my column " + myColumn);
-                    return false;
+        for (int myColumn = 0; myColumn < columnCount; myColumn++) {
+            long key = Fingerprints.key(mine.getColumnType(myColumn), mine.fingerprint(myColumn, ordered));
+            List<Integer> candidates = theirColumns.get(key);
+            if (candidates == null) {
+                return false;
+            }
+            // Any candidate which really has the same values is as good as any other, so the first one is taken.
+            boolean columnMatchFound = false;
+            for (Iterator<Integer> iterator = candidates.iterator(); iterator.hasNext(); ) {
+                int theirColumn = iterator.next();
+                if (columnsEqual(mine, myColumn, theirs, theirColumn, ordered)) {
+                    iterator.remove();
+                    columnMatchFound = true;
+                    break;
                 }
             }
+            if (!columnMatchFound) {
+                return false;
+            }
+        }
 
-            // If we manage to get to the end without failing, return true.
-            return true;
+        // If we manage to get to the end without failing, return true.
+        return true;
+    }
 
-        } catch (SQLException e) {
+    private static boolean columnsEqual(QueryResult mine, int myColumn, QueryResult theirs, int theirColumn, boolean ordered) {
+        if (mine instanceof ResultSnapshot && theirs instanceof ResultSnapshot) {
+            return ResultSnapshot.columnsEqual((ResultSnapshot) mine, myColumn, (ResultSnapshot) theirs, theirColumn, ordered);
+        }
+        try {
+            return StreamingComparison.columnsEqual(mine, myColumn, theirs, theirColumn, ordered);
+        } catch (IOException e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    @Override
+    public void release() {
+        this.result.release();
+    }
+
     /**
-     * Translates the result set into a listing of column names and queries.
+     * Translates the result set into a listing of column names, the number of rows, and the first few rows.
      * @return The string representation of this QueryAction.
      */
     @Override
     public String toString() {
-        try {
-            this.resultSet.absolute(1);
-            ResultSetMetaData metaData = this.resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            StringBuilder sb = new StringBuilder("Query Result:\n\tColumns: (");
-            for (int i = 0; i < columnCount; i++) {
-                sb.append(metaData.getColumnName(i + 1));
-                if (i < columnCount - 1) {
-                    sb.append(", ");
-                }
+        int columnCount = this.result.getColumnCount();
+
+        StringBuilder sb = new StringBuilder("Query Result:\n\tColumns: (");
+        for (int i = 0; i < columnCount; i++) {
+            sb.append(this.result.getColumnName(i));
+            if (i < columnCount - 1) {
+                sb.append(", ");
             }
-            sb.append(")\n\tValues:\n");
+        }
+        sb.append(")\n\tRows: ").append(this.result.getRowCount()).append("\n\tValues:\n");
 
-            do {
+        try (RowCursor cursor = this.result.openCursor()) {
+            for (long row = 0; row < MAX_DISPLAYED_ROWS && cursor.next(); row++) {
                 sb.append("\t(");
                 for (int i = 0; i < columnCount; i++) {
-                    sb.append(this.resultSet.getString(i + 1));
+                    sb.append(cursor.getValue(i));
                     if (i < columnCount - 1) {
                         sb.append(", ");
                     }
                 }
                 sb.append(")\n");
-            } while (this.resultSet.next());
-
-            return sb.toString();
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return "SQLException; Please use a SCROLL_INSENSITIVE statement when executing the query.";
+            }
+        } catch (IOException e) {
+            sb.append("\tCould not read rows: ").append(e.getMessage()).append('\n');
+        }
+        if (this.result.getRowCount() > MAX_DISPLAYED_ROWS) {
+            sb.append("\t... ").append(this.result.getRowCount() - MAX_DISPLAYED_ROWS).append(" more rows\n");
         }
+
+        return sb.toString();
     }
 
 }
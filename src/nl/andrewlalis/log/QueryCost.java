@@ -0,0 +1,89 @@
+package nl.andrewlalis.log;
+
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The cost of running a query, as measured by the database server with {@code EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON)}.
+ * Both the planner's estimate and the actual time and number of buffers touched are kept, since the estimate does not
+ * depend on the server's load, but can be wrong. The time does depend on the load and on what is cached, so it is only
+ * kept for information.
+ */
+public class QueryCost implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The buffer counters of a plan node which are added up into the number of blocks touched.
+     */
+    private static final String[] BLOCK_COUNTERS = {"Shared Hit Blocks", "Shared Read Blocks", "Local Hit Blocks",
+            "Local Read Blocks", "Temp Read Blocks", "Temp Written Blocks"};
+
+    private final double estimatedCost;
+    private final double executionMillis;
+    private final long blocks;
+
+    public QueryCost(double estimatedCost, double executionMillis, long blocks) {
+        this.estimatedCost = estimatedCost;
+        this.executionMillis = executionMillis;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Reads the cost of a query from the JSON plan which is given by EXPLAIN. The fields of the plan's root node come
+     * before those of its children, and the root node's counters include those of its children, so the first
+     * occurrence of each field is the one for the whole query.
+     * @param plan The JSON plan.
+     * @return The cost of the query.
+     * @throws IllegalArgumentException If the plan does not contain the total cost or execution time.
+     */
+    public static QueryCost parse(String plan) {
+        double estimatedCost = firstNumber(plan, "Total Cost");
+        double executionMillis = firstNumber(plan, "Execution Time");
+        if (Double.isNaN(estimatedCost) || Double.isNaN(executionMillis)) {
+            throw new IllegalArgumentException("The plan does not contain the cost of the query.");
+        }
+        long blocks = 0;
+        for (String counter : BLOCK_COUNTERS) {
+            double count = firstNumber(plan, counter);
+            if (!Double.isNaN(count)) {
+                blocks += (long) count;
+            }
+        }
+        return new QueryCost(estimatedCost, executionMillis, blocks);
+    }
+
+    private static double firstNumber(String json, String field) {
+        Matcher matcher = Pattern.compile('"' + Pattern.quote(field) + "\"\\s*:\\s*(-?[0-9.]+(?:[eE][-+]?[0-9]+)?)").matcher(json);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : Double.NaN;
+    }
+
+    /**
+     * @return The total cost of the query, as estimated by the planner, in the planner's arbitrary units.
+     */
+    public double getEstimatedCost() {
+        return this.estimatedCost;
+    }
+
+    /**
+     * @return The time it actually took to run the query, in milliseconds.
+     */
+    public double getExecutionMillis() {
+        return this.executionMillis;
+    }
+
+    /**
+     * @return The number of blocks of data which the query actually touched, whether they were cached or not.
+     */
+    public long getBlocks() {
+        return this.blocks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Query cost:\n\tEstimated cost: %.2f\n\tExecution time: %.3f ms\n\tBlocks touched: %d\n",
+                this.estimatedCost, this.executionMillis, this.blocks);
+    }
+
+}
@@ -0,0 +1,59 @@
+package nl.andrewlalis.log;
+
+import java.io.IOException;
+
+/**
+ * The rows returned by a query, which may be kept in memory or on disk.
+ */
+public interface QueryResult {
+
+    int getColumnCount();
+
+    long getRowCount();
+
+    String getColumnName(int column);
+
+    /**
+     * @return The approximate number of bytes taken up by the values of this result, as read from the database.
+     */
+    long getByteCount();
+
+    /**
+     * @return The SQL type of the column, as one of the constants in {@link java.sql.Types}.
+     */
+    int getColumnType(int column);
+
+    /**
+     * Gets the fingerprint of a column, which is equal for any two columns containing the same values, no matter how
+     * the results are stored.
+     * @param column The column.
+     * @param ordered Whether the order of the values should affect the fingerprint.
+     * @return The fingerprint.
+     */
+    long fingerprint(int column, boolean ordered);
+
+    /**
+     * Opens a cursor which goes through all rows once, from the first to the last.
+     * @return The cursor, which must be closed once it is no longer needed.
+     * @throws IOException If the rows could not be read.
+     */
+    default RowCursor openCursor() throws IOException {
+        return this.openCursor(0);
+    }
+
+    /**
+     * Opens a cursor which goes through the rows once, starting at the given row. Results which can find a row
+     * without reading the ones before it should override this.
+     * @param firstRow The index of the first row which the cursor moves to.
+     * @return The cursor, which must be closed once it is no longer needed.
+     * @throws IOException If the rows could not be read.
+     */
+    RowCursor openCursor(long firstRow) throws IOException;
+
+    /**
+     * Releases any resources held by this result, after which it may no longer be used.
+     */
+    default void release() {
+    }
+
+}
@@ -0,0 +1,522 @@
+package nl.andrewlalis.log;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact, read-only copy of the contents of a result set, which is read once and then no longer needs the database
+ * connection. Values are stored by column: integers and floating point numbers in primitive arrays, and all other
+ * values as codes into a dictionary of distinct strings which is shared by all columns. NULL values are recorded in a
+ * bitmap per column.
+ */
+public class ResultSnapshot implements QueryResult, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final Column[] columns;
+    private final int rowCount;
+    private final long byteCount;
+
+    /**
+     * The distinct strings of all text columns, and their hashes.
+     */
+    private final String[] dictionary;
+    private final long[] dictionaryHashes;
+
+    /**
+     * Lazily computed fingerprints of each column, in order-independent and order-dependent form. A snapshot may be
+     * compared by several threads at once, so a computed array is published safely.
+     */
+    private transient volatile long[] unorderedFingerprints;
+    private transient volatile long[] orderedFingerprints;
+
+    private ResultSnapshot(String[] columnNames, int[] columnTypes, Column[] columns, int rowCount, long byteCount,
+                           String[] dictionary) {
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.columns = columns;
+        this.rowCount = rowCount;
+        this.byteCount = byteCount;
+        this.dictionary = dictionary;
+        this.dictionaryHashes = new long[dictionary.length];
+        for (int i = 0; i < dictionary.length; i++) {
+            this.dictionaryHashes[i] = Fingerprints.hash(dictionary[i]);
+        }
+    }
+
+    /**
+     * Reads all remaining rows of a result set. The result set is only moved forward, and is not closed.
+     * @param resultSet The result set to read.
+     * @return A snapshot of the result set's contents.
+     * @throws SQLException If the result set could not be read.
+     */
+    public static ResultSnapshot read(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] columnNames = new String[columnCount];
+        int[] columnTypes = new int[columnCount];
+        Column[] columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+            columnTypes[i] = metaData.getColumnType(i + 1);
+            columns[i] = Column.forType(columnTypes[i]);
+        }
+
+        Map<String, Integer> codes = new HashMap<>();
+        String[] dictionary = new String[INITIAL_CAPACITY];
+        int rowCount = 0;
+        long byteCount = 0;
+        while (resultSet.next()) {
+            for (int i = 0; i < columnCount; i++) {
+                Column column = columns[i];
+                column.ensureCapacity(rowCount + 1);
+                if (column instanceof LongColumn) {
+                    ((LongColumn) column).values[rowCount] = resultSet.getLong(i + 1);
+                    byteCount += Long.BYTES;
+                } else if (column instanceof DoubleColumn) {
+                    ((DoubleColumn) column).values[rowCount] = resultSet.getDouble(i + 1);
+                    byteCount += Double.BYTES;
+                } else {
+                    String value = resultSet.getString(i + 1);
+                    if (value != null) {
+                        byteCount += value.length();
+                        Integer code = codes.get(value);
+                        if (code == null) {
+                            code = codes.size();
+                            codes.put(value, code);
+                            if (code == dictionary.length) {
+                                dictionary = Arrays.copyOf(dictionary, dictionary.length * 2);
+                            }
+                            dictionary[code] = value;
+                        }
+                        ((TextColumn) column).codes[rowCount] = code;
+                    }
+                }
+                if (resultSet.wasNull()) {
+                    column.setNull(rowCount);
+                }
+            }
+            rowCount++;
+        }
+        for (Column column : columns) {
+            column.trim(rowCount);
+        }
+        return new ResultSnapshot(columnNames, columnTypes, columns, rowCount, byteCount, Arrays.copyOf(dictionary, codes.size()));
+    }
+
+    /**
+     * Writes this snapshot in a compact binary form, which can be read back with {@link #readFrom(ByteBuffer)}. The
+     * values of each column are written as one block of fixed-size values, so that they can be read back in bulk.
+     * @param out The output to write to.
+     * @throws IOException If the snapshot could not be written.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.columns.length);
+        for (int i = 0; i < this.columns.length; i++) {
+            LogStore.writeString(out, this.columnNames[i]);
+            out.writeInt(this.columnTypes[i]);
+        }
+        out.writeInt(this.rowCount);
+        out.writeLong(this.byteCount);
+        out.writeInt(this.dictionary.length);
+        for (String value : this.dictionary) {
+            LogStore.writeString(out, value);
+        }
+        for (Column column : this.columns) {
+            out.writeInt(column.nulls.length);
+            for (long word : column.nulls) {
+                out.writeLong(word);
+            }
+            if (column instanceof LongColumn) {
+                for (long value : ((LongColumn) column).values) {
+                    out.writeLong(value);
+                }
+            } else if (column instanceof DoubleColumn) {
+                for (double value : ((DoubleColumn) column).values) {
+                    out.writeDouble(value);
+                }
+            } else {
+                for (int code : ((TextColumn) column).codes) {
+                    out.writeInt(code);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot which was written by {@link #writeTo(DataOutput)}, and moves the buffer past it.
+     * @param buffer The buffer to read from.
+     * @return The snapshot.
+     */
+    static ResultSnapshot readFrom(ByteBuffer buffer) {
+        int columnCount = buffer.getInt();
+        String[] columnNames = new String[columnCount];
+        int[] columnTypes = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = LogStore.readString(buffer);
+            columnTypes[i] = buffer.getInt();
+        }
+        int rowCount = buffer.getInt();
+        long byteCount = buffer.getLong();
+        String[] dictionary = new String[buffer.getInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = LogStore.readString(buffer);
+        }
+        Column[] columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Column column = Column.forType(columnTypes[i]);
+            column.nulls = new long[buffer.getInt()];
+            buffer.asLongBuffer().get(column.nulls);
+            buffer.position(buffer.position() + column.nulls.length * Long.BYTES);
+            if (column instanceof LongColumn) {
+                long[] values = new long[rowCount];
+                buffer.asLongBuffer().get(values);
+                buffer.position(buffer.position() + rowCount * Long.BYTES);
+                ((LongColumn) column).values = values;
+            } else if (column instanceof DoubleColumn) {
+                double[] values = new double[rowCount];
+                buffer.asDoubleBuffer().get(values);
+                buffer.position(buffer.position() + rowCount * Double.BYTES);
+                ((DoubleColumn) column).values = values;
+            } else {
+                int[] codes = new int[rowCount];
+                buffer.asIntBuffer().get(codes);
+                buffer.position(buffer.position() + rowCount * Integer.BYTES);
+                ((TextColumn) column).codes = codes;
+            }
+            columns[i] = column;
+        }
+        return new ResultSnapshot(columnNames, columnTypes, columns, rowCount, byteCount, dictionary);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    @Override
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    @Override
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return this.columnNames[column];
+    }
+
+    @Override
+    public int getColumnType(int column) {
+        return this.columnTypes[column];
+    }
+
+    public boolean isNull(int row, int column) {
+        return this.columns[column].isNull(row);
+    }
+
+    /**
+     * Formats a single value for display.
+     * @param row The row of the value.
+     * @param column The column of the value.
+     * @return The value as a string, or "null" for SQL NULL.
+     */
+    public String format(int row, int column) {
+        Column c = this.columns[column];
+        if (c.isNull(row)) {
+            return "null";
+        }
+        if (c instanceof LongColumn) {
+            return Long.toString(((LongColumn) c).values[row]);
+        } else if (c instanceof DoubleColumn) {
+            return Fingerprints.formatDouble(((DoubleColumn) c).values[row]);
+        } else {
+            return this.dictionary[((TextColumn) c).codes[row]];
+        }
+    }
+
+    @Override
+    public long fingerprint(int column, boolean ordered) {
+        if (ordered) {
+            if (this.orderedFingerprints == null) {
+                this.orderedFingerprints = this.computeFingerprints(true);
+            }
+            return this.orderedFingerprints[column];
+        } else {
+            if (this.unorderedFingerprints == null) {
+                this.unorderedFingerprints = this.computeFingerprints(false);
+            }
+            return this.unorderedFingerprints[column];
+        }
+    }
+
+    private long[] computeFingerprints(boolean ordered) {
+        long[] fingerprints = new long[this.columns.length];
+        for (int column = 0; column < this.columns.length; column++) {
+            long fingerprint = 0;
+            for (int row = 0; row < this.rowCount; row++) {
+                long hash = this.hash(row, column);
+                fingerprint = ordered ? Fingerprints.addOrdered(fingerprint, hash) : Fingerprints.addUnordered(fingerprint, hash);
+            }
+            fingerprints[column] = fingerprint;
+        }
+        return fingerprints;
+    }
+
+    private long hash(int row, int column) {
+        Column c = this.columns[column];
+        if (c.isNull(row)) {
+            return Fingerprints.hash(null);
+        }
+        if (c instanceof LongColumn) {
+            return Fingerprints.mix(((LongColumn) c).values[row]);
+        } else if (c instanceof DoubleColumn) {
+            return Fingerprints.mix(Double.doubleToLongBits(((DoubleColumn) c).values[row]));
+        } else {
+            return this.dictionaryHashes[((TextColumn) c).codes[row]];
+        }
+    }
+
+    /**
+     * Determines if a value in this snapshot is equal to a value in another one. The columns must be of the same type.
+     */
+    private boolean valueEquals(int row, int column, ResultSnapshot other, int otherRow, int otherColumn) {
+        Column mine = this.columns[column];
+        Column theirs = other.columns[otherColumn];
+        boolean myNull = mine.isNull(row);
+        if (myNull || theirs.isNull(otherRow)) {
+            return myNull == theirs.isNull(otherRow);
+        }
+        if (mine instanceof LongColumn) {
+            return ((LongColumn) mine).values[row] == ((LongColumn) theirs).values[otherRow];
+        } else if (mine instanceof DoubleColumn) {
+            return Double.compare(((DoubleColumn) mine).values[row], ((DoubleColumn) theirs).values[otherRow]) == 0;
+        } else {
+            int myCode = ((TextColumn) mine).codes[row];
+            int theirCode = ((TextColumn) theirs).codes[otherRow];
+            return this.dictionaryHashes[myCode] == other.dictionaryHashes[theirCode]
+                    && this.dictionary[myCode].equals(other.dictionary[theirCode]);
+        }
+    }
+
+    /**
+     * Checks that a column of one snapshot contains exactly the same values as a column of another snapshot. The
+     * columns must be of the same type, and the snapshots must have the same number of rows.
+     * @param a The first snapshot.
+     * @param columnA The column of the first snapshot.
+     * @param b The second snapshot.
+     * @param columnB The column of the second snapshot.
+     * @param ordered Whether the values must also appear in the same order.
+     * @return True if the columns contain the same values.
+     */
+    public static boolean columnsEqual(ResultSnapshot a, int columnA, ResultSnapshot b, int columnB, boolean ordered) {
+        if (a.rowCount != b.rowCount || a.columns[columnA].getClass() != b.columns[columnB].getClass()) {
+            return false;
+        }
+        if (ordered) {
+            for (int row = 0; row < a.rowCount; row++) {
+                if (!a.valueEquals(row, columnA, b, row, columnB)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Sort the rows of each column by the upper half of their values' hashes, packing the row number into the
+        // lower half, so that equal values end up in the same group on both sides.
+        long[] sortedA = a.sortedHashes(columnA);
+        long[] sortedB = b.sortedHashes(columnB);
+        int i = 0;
+        while (i < sortedA.length) {
+            long group = sortedA[i] >>> 32;
+            int end = i + 1;
+            while (end < sortedA.length && (sortedA[end] >>> 32) == group) {
+                end++;
+            }
+            for (int k = i; k < end; k++) {
+                if ((sortedB[k] >>> 32) != group) {
+                    return false;
+                }
+            }
+            if (end < sortedB.length && (sortedB[end] >>> 32) == group) {
+                return false;
+            }
+            if (!groupsEqual(a, columnA, sortedA, b, columnB, sortedB, i, end)) {
+                return false;
+            }
+            i = end;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that two groups of rows with equal hashes contain the same values. Groups almost always consist of a
+     * single row, or of rows with one repeated value.
+     */
+    private static boolean groupsEqual(ResultSnapshot a, int columnA, long[] sortedA, ResultSnapshot b, int columnB, long[] sortedB, int start, int end) {
+        if (end - start == 1) {
+            return a.valueEquals((int) sortedA[start], columnA, b, (int) sortedB[start], columnB);
+        }
+        boolean[] used = new boolean[end - start];
+        for (int i = start; i < end; i++) {
+            boolean found = false;
+            for (int j = start; j < end && !found; j++) {
+                if (!used[j - start] && a.valueEquals((int) sortedA[i], columnA, b, (int) sortedB[j], columnB)) {
+                    used[j - start] = true;
+                    found = true;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public RowCursor openCursor(long firstRow) {
+        return new RowCursor() {
+            private int row = (int) Math.min(firstRow, rowCount) - 1;
+
+            @Override
+            public boolean next() {
+                return ++this.row < rowCount;
+            }
+
+            @Override
+            public String getValue(int column) {
+                return isNull(this.row, column) ? null : format(this.row, column);
+            }
+
+            @Override
+            public long getHash(int column) {
+                return hash(this.row, column);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private long[] sortedHashes(int column) {
+        long[] sorted = new long[this.rowCount];
+        for (int row = 0; row < this.rowCount; row++) {
+            sorted[row] = (this.hash(row, column) & 0xFFFFFFFF00000000L) | row;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Storage for the values of a single column.
+     */
+    private abstract static class Column implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long[] nulls = new long[1];
+
+        static Column forType(int sqlType) {
+            switch (Fingerprints.kindOf(sqlType)) {
+                case Fingerprints.KIND_LONG:
+                    return new LongColumn();
+                case Fingerprints.KIND_DOUBLE:
+                    return new DoubleColumn();
+                default:
+                    return new TextColumn();
+            }
+        }
+
+        boolean isNull(int row) {
+            int word = row >>> 6;
+            return word < this.nulls.length && (this.nulls[word] & (1L << row)) != 0;
+        }
+
+        void setNull(int row) {
+            int word = row >>> 6;
+            if (word >= this.nulls.length) {
+                this.nulls = Arrays.copyOf(this.nulls, Math.max(word + 1, this.nulls.length * 2));
+            }
+            this.nulls[word] |= 1L << row;
+        }
+
+        abstract void ensureCapacity(int rows);
+
+        void trim(int rows) {
+            this.nulls = Arrays.copyOf(this.nulls, Math.min(this.nulls.length, (rows + 63) >>> 6));
+        }
+    }
+
+    private static class LongColumn extends Column {
+        private static final long serialVersionUID = 1L;
+
+        private long[] values = new long[INITIAL_CAPACITY];
+
+        @Override
+        void ensureCapacity(int rows) {
+            if (rows > this.values.length) {
+                this.values = Arrays.copyOf(this.values, Math.max(rows, this.values.length * 2));
+            }
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            this.values = Arrays.copyOf(this.values, rows);
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        private static final long serialVersionUID = 1L;
+
+        private double[] values = new double[INITIAL_CAPACITY];
+
+        @Override
+        void ensureCapacity(int rows) {
+            if (rows > this.values.length) {
+                this.values = Arrays.copyOf(this.values, Math.max(rows, this.values.length * 2));
+            }
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            this.values = Arrays.copyOf(this.values, rows);
+        }
+    }
+
+    private static class TextColumn extends Column {
+        private static final long serialVersionUID = 1L;
+
+        private int[] codes = new int[INITIAL_CAPACITY];
+
+        @Override
+        void ensureCapacity(int rows) {
+            if (rows > this.codes.length) {
+                this.codes = Arrays.copyOf(this.codes, Math.max(rows, this.codes.length * 2));
+            }
+        }
+
+        @Override
+        void trim(int rows) {
+            super.trim(rows);
+            this.codes = Arrays.copyOf(this.codes, rows);
+        }
+    }
+
+}
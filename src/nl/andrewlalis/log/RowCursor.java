@@ -0,0 +1,28 @@
+package nl.andrewlalis.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Goes through the rows of a {@link QueryResult} one at a time. It starts before the first row.
+ */
+public interface RowCursor extends Closeable {
+
+    /**
+     * Moves to the next row.
+     * @return True if there is a next row, or false if the last row has been passed.
+     * @throws IOException If the row could not be read.
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return The value in the current row, formatted for display, or null for SQL NULL.
+     */
+    String getValue(int column);
+
+    /**
+     * @return The hash of the value in the current row, as used for fingerprints.
+     */
+    long getHash(int column);
+
+}
@@ -0,0 +1,94 @@
+package nl.andrewlalis.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Creates the temporary files in which query results and partitions are kept while they are compared. Each file is
+ * deleted as soon as it is no longer needed, by whoever created it. The files of each process are kept in a directory
+ * of their own, which the process holds a lock on while it runs, so that the files which a process left behind when it
+ * was stopped can be deleted by the next process which starts.
+ */
+final class SpillFiles {
+
+    private static final File ROOT = new File(System.getProperty("java.io.tmpdir"), "sql-assess");
+    private static final String LOCK_FILE = "lock";
+
+    private static File directory;
+    /**
+     * The channel which holds the lock on this process' directory. It is never closed, so that the lock is only
+     * released when the process ends.
+     */
+    private static FileChannel lockChannel;
+
+    private SpillFiles() {
+    }
+
+    /**
+     * Creates a new, empty temporary file.
+     * @param suffix The suffix of the file's name.
+     * @return The file.
+     * @throws IOException If the file could not be created.
+     */
+    static File create(String suffix) throws IOException {
+        return File.createTempFile("sql-assess-", suffix, directory());
+    }
+
+    private static synchronized File directory() throws IOException {
+        if (directory == null || !directory.isDirectory()) {
+            if (!ROOT.isDirectory() && !ROOT.mkdirs()) {
+                throw new IOException("Could not create temporary directory " + ROOT);
+            }
+            deleteAbandoned();
+            File created = Files.createTempDirectory(ROOT.toPath(), "run-").toFile();
+            FileChannel channel = FileChannel.open(new File(created, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+            lockChannel = channel;
+            directory = created;
+        }
+        return directory;
+    }
+
+    /**
+     * Deletes the directories of processes which have ended, together with their files. A directory without a lock
+     * file may still be being created, so it is left alone.
+     */
+    private static void deleteAbandoned() {
+        File[] directories = ROOT.listFiles(File::isDirectory);
+        if (directories == null) {
+            return;
+        }
+        for (File abandoned : directories) {
+            File lockFile = new File(abandoned, LOCK_FILE);
+            if (!lockFile.isFile()) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    continue;
+                }
+                File[] files = abandoned.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.equals(lockFile)) {
+                            file.delete();
+                        }
+                    }
+                }
+                lock.release();
+            } catch (IOException | OverlappingFileLockException e) {
+                continue;
+            }
+            lockFile.delete();
+            abandoned.delete();
+        }
+    }
+
+}
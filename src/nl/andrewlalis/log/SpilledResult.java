@@ -0,0 +1,223 @@
+package nl.andrewlalis.log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * A query result which is written to a temporary file as it is read from the database, so that results of any size
+ * can be handled with a constant amount of memory. Column fingerprints are computed while the rows are written.
+ */
+public class SpilledResult implements QueryResult {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of rows between entries in the index of file offsets, which lets cursors start at any row.
+     */
+    private static final int ROW_INDEX_INTERVAL = 1024;
+
+    private final File file;
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final int[] columnKinds;
+    private final long rowCount;
+    private final long byteCount;
+    private final long[] unorderedFingerprints;
+    private final long[] orderedFingerprints;
+    private final long[] rowOffsets;
+
+    private SpilledResult(File file, String[] columnNames, int[] columnTypes, int[] columnKinds, long rowCount,
+                          long byteCount, long[] unorderedFingerprints, long[] orderedFingerprints, long[] rowOffsets) {
+        this.file = file;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.columnKinds = columnKinds;
+        this.rowCount = rowCount;
+        this.byteCount = byteCount;
+        this.unorderedFingerprints = unorderedFingerprints;
+        this.orderedFingerprints = orderedFingerprints;
+        this.rowOffsets = rowOffsets;
+    }
+
+    /**
+     * Reads all remaining rows of a result set into a temporary file. The result set is only moved forward, and is
+     * not closed.
+     * @param resultSet The result set to read.
+     * @return The spilled result.
+     * @throws SQLException If the result set could not be read, or the file could not be written.
+     */
+    public static SpilledResult write(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] columnNames = new String[columnCount];
+        int[] columnTypes = new int[columnCount];
+        int[] columnKinds = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = metaData.getColumnName(i + 1);
+            columnTypes[i] = metaData.getColumnType(i + 1);
+            columnKinds[i] = Fingerprints.kindOf(columnTypes[i]);
+        }
+
+        long[] unorderedFingerprints = new long[columnCount];
+        long[] orderedFingerprints = new long[columnCount];
+        long rowCount = 0;
+        long[] rowOffsets = new long[16];
+        long offset = 0;
+        File file = null;
+        try {
+            file = SpillFiles.create(".rows");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+                while (resultSet.next()) {
+                    if (rowCount % ROW_INDEX_INTERVAL == 0) {
+                        int entry = (int) (rowCount / ROW_INDEX_INTERVAL);
+                        if (entry == rowOffsets.length) {
+                            rowOffsets = Arrays.copyOf(rowOffsets, entry * 2);
+                        }
+                        rowOffsets[entry] = offset;
+                    }
+                    for (int i = 0; i < columnCount; i++) {
+                        String value;
+                        long hash;
+                        if (columnKinds[i] == Fingerprints.KIND_LONG) {
+                            long l = resultSet.getLong(i + 1);
+                            value = resultSet.wasNull() ? null : Long.toString(l);
+                            hash = value == null ? Fingerprints.hash(null) : Fingerprints.mix(l);
+                        } else if (columnKinds[i] == Fingerprints.KIND_DOUBLE) {
+                            double d = resultSet.getDouble(i + 1);
+                            value = resultSet.wasNull() ? null : Fingerprints.formatDouble(d);
+                            hash = value == null ? Fingerprints.hash(null) : Fingerprints.mix(Double.doubleToLongBits(d));
+                        } else {
+                            value = resultSet.getString(i + 1);
+                            hash = Fingerprints.hash(value);
+                        }
+                        offset += writeValue(out, value);
+                        unorderedFingerprints[i] = Fingerprints.addUnordered(unorderedFingerprints[i], hash);
+                        orderedFingerprints[i] = Fingerprints.addOrdered(orderedFingerprints[i], hash);
+                    }
+                    rowCount++;
+                }
+            }
+        } catch (IOException e) {
+            if (file != null) {
+                file.delete();
+            }
+            throw new SQLException("Could not write query result to disk.", e);
+        }
+        return new SpilledResult(file, columnNames, columnTypes, columnKinds, rowCount, offset, unorderedFingerprints,
+                orderedFingerprints, rowOffsets);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return this.columnNames.length;
+    }
+
+    @Override
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    @Override
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return this.columnNames[column];
+    }
+
+    @Override
+    public int getColumnType(int column) {
+        return this.columnTypes[column];
+    }
+
+    @Override
+    public long fingerprint(int column, boolean ordered) {
+        return ordered ? this.orderedFingerprints[column] : this.unorderedFingerprints[column];
+    }
+
+    @Override
+    public RowCursor openCursor(long firstRow) throws IOException {
+        long start = Math.min(firstRow, this.rowCount);
+        long indexedRow = start / ROW_INDEX_INTERVAL * ROW_INDEX_INTERVAL;
+        FileInputStream fileIn = new FileInputStream(this.file);
+        if (indexedRow < this.rowCount) {
+            fileIn.getChannel().position(this.rowOffsets[(int) (indexedRow / ROW_INDEX_INTERVAL)]);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+        String[] values = new String[this.columnNames.length];
+        RowCursor cursor = new RowCursor() {
+            private long row = indexedRow;
+
+            @Override
+            public boolean next() throws IOException {
+                if (this.row++ >= rowCount) {
+                    return false;
+                }
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readValue(in);
+                }
+                return true;
+            }
+
+            @Override
+            public String getValue(int column) {
+                return values[column];
+            }
+
+            @Override
+            public long getHash(int column) {
+                return Fingerprints.hash(columnKinds[column], values[column]);
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+        // Skip the rows between the indexed row and the first row.
+        for (long row = indexedRow; row < start; row++) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    @Override
+    public void release() {
+        this.file.delete();
+    }
+
+    /**
+     * Writes a single value, prefixed by its length.
+     * @param out The output to write to.
+     * @param value The value, which may be null.
+     * @return The number of bytes written.
+     * @throws IOException If the value could not be written.
+     */
+    static int writeValue(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return 4;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    static String readValue(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,275 @@
+package nl.andrewlalis.log;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compares columns of query results without holding them in memory. Ordered columns are compared by reading both
+ * results in lockstep. Unordered columns are split into partitions on disk by the hash of each value, so that equal
+ * values always end up in the same partition, and then each pair of partitions is compared in memory. Partitions which
+ * are still too large to compare in memory are split again, by a differently seeded hash.
+ */
+final class StreamingComparison {
+
+    /**
+     * The number of rows which are compared in memory at once, for unordered columns.
+     */
+    private static final long PARTITION_ROWS = 1 << 16;
+
+    /**
+     * The largest number of partitions which a result, or a partition, is split into at once. This bounds the number
+     * of partition files which are open at the same time, not the total number of partitions.
+     */
+    private static final int FANOUT = 256;
+
+    private StreamingComparison() {
+    }
+
+    /**
+     * Checks that a column of one result contains exactly the same values as a column of another result.
+     * @param a The first result.
+     * @param columnA The column of the first result.
+     * @param b The second result.
+     * @param columnB The column of the second result.
+     * @param ordered Whether the values must also appear in the same order.
+     * @return True if the columns contain the same values.
+     * @throws IOException If either result could not be read, or partitions could not be written.
+     */
+    static boolean columnsEqual(QueryResult a, int columnA, QueryResult b, int columnB, boolean ordered) throws IOException {
+        if (a.getRowCount() != b.getRowCount()) {
+            return false;
+        }
+        if (ordered) {
+            try (RowCursor mine = a.openCursor(); RowCursor theirs = b.openCursor()) {
+                while (mine.next() && theirs.next()) {
+                    if (!Objects.equals(mine.getValue(columnA), theirs.getValue(columnB))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        if (a.getRowCount() <= PARTITION_ROWS) {
+            Map<String, Integer> counts = new HashMap<>();
+            try (RowCursor mine = a.openCursor()) {
+                while (mine.next()) {
+                    counts.merge(mine.getValue(columnA), 1, Integer::sum);
+                }
+            }
+            try (RowCursor theirs = b.openCursor()) {
+                while (theirs.next()) {
+                    if (!takeValue(counts, theirs.getValue(columnB))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        int count = partitionCount(a.getRowCount());
+        Partitions myPartitions = new Partitions(count);
+        Partitions theirPartitions = null;
+        try {
+            try (RowCursor cursor = a.openCursor()) {
+                while (cursor.next()) {
+                    myPartitions.add(cursor.getHash(columnA), cursor.getValue(columnA));
+                }
+            }
+            myPartitions.finish();
+            theirPartitions = new Partitions(count);
+            try (RowCursor cursor = b.openCursor()) {
+                while (cursor.next()) {
+                    theirPartitions.add(cursor.getHash(columnB), cursor.getValue(columnB));
+                }
+            }
+            theirPartitions.finish();
+            return partitionsEqual(myPartitions, theirPartitions, a.getRowCount(), 1);
+        } finally {
+            myPartitions.delete();
+            if (theirPartitions != null) {
+                theirPartitions.delete();
+            }
+        }
+    }
+
+    /**
+     * Compares each pair of partitions of two columns, splitting any partition which is too large to compare in
+     * memory again. A split which does not make a partition any smaller means that its values all have the same hash,
+     * which in practice means that they are all equal, so they take up only one entry in memory and are compared there.
+     * @param mine The partitions of the first column.
+     * @param theirs The partitions of the second column.
+     * @param parentRows The number of rows which were split into these partitions.
+     * @param level The number of times the values have been split, which seeds the hash of the next split.
+     * @return True if every pair of partitions contains the same values.
+     */
+    private static boolean partitionsEqual(Partitions mine, Partitions theirs, long parentRows, int level) throws IOException {
+        for (int p = 0; p < mine.files.length; p++) {
+            long rows = mine.rows[p];
+            if (rows != theirs.rows[p]) {
+                return false;
+            }
+            boolean equal;
+            if (rows <= PARTITION_ROWS || rows == parentRows) {
+                equal = partitionEqual(mine.files[p], theirs.files[p]);
+            } else {
+                equal = splitEqual(mine.files[p], theirs.files[p], rows, level);
+            }
+            if (!equal) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean partitionEqual(File mine, File theirs) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (DataInputStream in = openPartition(mine)) {
+            while (in.readBoolean()) {
+                counts.merge(SpilledResult.readValue(in), 1, Integer::sum);
+            }
+        }
+        try (DataInputStream in = openPartition(theirs)) {
+            while (in.readBoolean()) {
+                if (!takeValue(counts, SpilledResult.readValue(in))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a pair of oversized partitions into smaller ones, and compares those.
+     */
+    private static boolean splitEqual(File mine, File theirs, long rows, int level) throws IOException {
+        int count = partitionCount(rows);
+        Partitions mySplit = split(mine, count, level);
+        Partitions theirSplit = null;
+        try {
+            theirSplit = split(theirs, count, level);
+            return partitionsEqual(mySplit, theirSplit, rows, level + 1);
+        } finally {
+            mySplit.delete();
+            if (theirSplit != null) {
+                theirSplit.delete();
+            }
+        }
+    }
+
+    private static Partitions split(File file, int count, int level) throws IOException {
+        Partitions partitions = new Partitions(count);
+        try (DataInputStream in = openPartition(file)) {
+            while (in.readBoolean()) {
+                String value = SpilledResult.readValue(in);
+                partitions.add(Fingerprints.mix(Fingerprints.hash(value) + level * 0x9E3779B97F4A7C15L), value);
+            }
+            partitions.finish();
+        } catch (IOException e) {
+            partitions.delete();
+            throw e;
+        }
+        return partitions;
+    }
+
+    private static int partitionCount(long rows) {
+        return (int) Math.min(FANOUT, (rows + PARTITION_ROWS - 1) / PARTITION_ROWS);
+    }
+
+    /**
+     * Removes one occurrence of a value from a map of value counts.
+     * @return True if the value was present, or false if it was not.
+     */
+    private static boolean takeValue(Map<String, Integer> counts, String value) {
+        Integer count = counts.get(value);
+        if (count == null || count == 0) {
+            return false;
+        }
+        counts.put(value, count - 1);
+        return true;
+    }
+
+    private static DataInputStream openPartition(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), SpilledResult.BUFFER_SIZE));
+    }
+
+    /**
+     * A set of partition files which values are written to, choosing the partition by each value's hash. Each value is
+     * preceded by a true flag, and each file ends with a false flag.
+     */
+    private static final class Partitions {
+
+        final File[] files;
+        final long[] rows;
+        private final DataOutputStream[] outputs;
+
+        Partitions(int count) throws IOException {
+            this.files = new File[count];
+            this.rows = new long[count];
+            this.outputs = new DataOutputStream[count];
+            try {
+                for (int p = 0; p < count; p++) {
+                    this.files[p] = SpillFiles.create(".part");
+                    this.outputs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.files[p]), 8192));
+                }
+            } catch (IOException e) {
+                this.delete();
+                throw e;
+            }
+        }
+
+        void add(long hash, String value) throws IOException {
+            int p = (int) ((hash >>> 1) % this.files.length);
+            this.outputs[p].writeBoolean(true);
+            SpilledResult.writeValue(this.outputs[p], value);
+            this.rows[p]++;
+        }
+
+        /**
+         * Ends and closes every partition file, after which the files may be read.
+         */
+        void finish() throws IOException {
+            for (DataOutputStream output : this.outputs) {
+                output.writeBoolean(false);
+            }
+            this.close();
+        }
+
+        /**
+         * Closes and deletes every partition file.
+         */
+        void delete() {
+            try {
+                this.close();
+            } catch (IOException e) {
+                // The files are deleted regardless.
+            }
+            for (File file : this.files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            IOException failure = null;
+            for (int p = 0; p < this.outputs.length; p++) {
+                if (this.outputs[p] != null) {
+                    try {
+                        this.outputs[p].close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                    this.outputs[p] = null;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+    }
+
+}
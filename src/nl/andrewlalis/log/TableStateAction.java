@@ -0,0 +1,97 @@
+package nl.andrewlalis.log;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Represents the state of all tables after a series of statements, as a digest of each table's rows which does not
+ * depend on the order of the rows. Comparing these digests judges updates by the data they leave behind, no matter in
+ * which order or in how many statements the data was changed.
+ */
+public class TableStateAction extends ExecutionAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private TreeMap<String, String> digests;
+
+    /**
+     * @param digests The digest of each table, by table name.
+     */
+    public TableStateAction(Map<String, String> digests) {
+        this.digests = new TreeMap<>(digests);
+    }
+
+    /**
+     * Computes the digest of a table by reading all of its rows, for databases which cannot compute it themselves.
+     * The result set is only moved forward, and is not closed.
+     * @param resultSet The result set containing all rows of the table.
+     * @return The digest, made up of the number of rows and an order-independent hash of the rows.
+     * @throws SQLException If the result set could not be read.
+     */
+    public static String digest(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        long rowCount = 0;
+        long digest = 0;
+        while (resultSet.next()) {
+            long rowHash = 0;
+            for (int i = 0; i < columnCount; i++) {
+                rowHash = Fingerprints.addOrdered(rowHash, Fingerprints.hash(resultSet.getString(i + 1)));
+            }
+            digest = Fingerprints.addUnordered(digest, rowHash);
+            rowCount++;
+        }
+        return rowCount + ":" + Long.toHexString(digest);
+    }
+
+    /**
+     * @param other The table state to compare with.
+     * @return The names of the tables which only exist in one of the states, or whose digests differ.
+     */
+    public Set<String> differingTables(TableStateAction other) {
+        Set<String> tables = new TreeSet<>(this.digests.keySet());
+        tables.addAll(other.digests.keySet());
+        tables.removeIf(table -> Objects.equals(this.digests.get(table), other.digests.get(table)));
+        return tables;
+    }
+
+    /**
+     * @return The digest of each table, by table name, in the order of the names.
+     */
+    public Map<String, String> getDigests() {
+        return Collections.unmodifiableMap(this.digests);
+    }
+
+    /**
+     * @param table The name of a table.
+     * @return Whether the table exists in this state.
+     */
+    public boolean hasTable(String table) {
+        return this.digests.containsKey(table);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TableStateAction)) {
+            return false;
+        }
+
+        return this.digests.equals(((TableStateAction) other).digests);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.digests.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Table state:\n");
+        for (Map.Entry<String, String> entry : this.digests.entrySet()) {
+            sb.append('\t').append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
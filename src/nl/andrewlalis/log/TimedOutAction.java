@@ -0,0 +1,39 @@
+package nl.andrewlalis.log;
+
+/**
+ * Represents a statement which was cancelled because it ran for too long, so nothing is known about its outcome.
+ */
+public class TimedOutAction extends ExecutionAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private long elapsedMillis;
+
+    public TimedOutAction(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getElapsedMillis() {
+        return this.elapsedMillis;
+    }
+
+    /**
+     * A timed out statement is never equal to the action of another log, since it is unknown what it would have done.
+     * @param other The other object to check equality with.
+     * @return True only if the other object is this action.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other == this;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "Timed out:\n\tCancelled after " + this.elapsedMillis + " ms\n";
+    }
+}
@@ -5,12 +5,18 @@ package nl.andrewlalis.log;
  */
 public class UpdateAction extends ExecutionAction {
 
+    private static final long serialVersionUID = 1L;
+
     private int rowsAffected;
 
     public UpdateAction(int rowsAffected, String statement) {
         this.rowsAffected = rowsAffected;
     }
 
+    public int getRowsAffected() {
+        return this.rowsAffected;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (!(other instanceof UpdateAction)) {
@@ -0,0 +1,118 @@
+package nl.andrewlalis.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An SQL script file which is mapped into memory instead of being read, so that a script much larger than the heap
+ * can be split into statements and run one statement at a time, without ever holding a copy of the whole script.
+ *
+ * <p>Each byte of the file is one character of the sequence. This is enough for a {@link SqlLexer}, since UTF-8 never
+ * uses ASCII bytes inside of multi-byte characters, so quotes, comments and semicolons are always found. The text of a
+ * statement, as given by {@link #subSequence(int, int)}, is decoded as UTF-8. Anything which depends on the actual
+ * characters, such as hashing the script or normalizing its statements, uses the decoded text or the raw bytes, so
+ * that a mapped script gives the same results as the same text held in a string.</p>
+ */
+public class MappedScript implements CharSequence {
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final File file;
+    private final ByteBuffer buffer;
+
+    private MappedScript(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps a script file into memory. The file should not be changed while the script is in use.
+     * @param file The file.
+     * @return The mapped script.
+     * @throws IOException If the file could not be mapped, or is larger than 2 GB.
+     */
+    public static MappedScript open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Scripts larger than 2 GB are not supported: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // A byte order mark is not part of the SQL.
+            if (size >= UTF8_BOM.length && buffer.get(0) == UTF8_BOM[0] && buffer.get(1) == UTF8_BOM[1]
+                    && buffer.get(2) == UTF8_BOM[2]) {
+                buffer.position(UTF8_BOM.length);
+                buffer = buffer.slice();
+            }
+            return new MappedScript(file, buffer);
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return The bytes of the script, after any byte order mark, which are the UTF-8 encoding of its text. The buffer
+     * is read-only, and its position and limit may be changed freely.
+     */
+    public ByteBuffer bytes() {
+        return this.buffer.duplicate();
+    }
+
+    @Override
+    public int length() {
+        return this.buffer.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (this.buffer.get(index) & 0xFF);
+    }
+
+    /**
+     * Decodes part of the script as UTF-8. Offsets are byte offsets, so the text has fewer characters than the part
+     * has bytes if it contains multi-byte characters.
+     * @param start The offset at which the part starts.
+     * @param end The offset at which the part ends.
+     * @return The text of the part.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the start of the script, up to the last line break which fits, for showing instead of the whole script.
+     * @param maxBytes The maximum number of bytes to decode.
+     * @return The start of the script.
+     */
+    public String preview(int maxBytes) {
+        int end = Math.min(maxBytes, this.length());
+        if (end < this.length()) {
+            int lineEnd = end;
+            while (lineEnd > 0 && this.buffer.get(lineEnd - 1) != '\n') {
+                lineEnd--;
+            }
+            end = lineEnd > 0 ? lineEnd : end;
+        }
+        return this.subSequence(0, end).toString();
+    }
+
+    /**
+     * Decodes the whole script, which should only be done if it is known to be small.
+     */
+    @Override
+    public String toString() {
+        return this.subSequence(0, this.length()).toString();
+    }
+
+}
@@ -0,0 +1,610 @@
+package nl.andrewlalis.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits an SQL script into statements in a single pass, without copying it. Semicolons inside of string literals,
+ * quoted identifiers, comments and dollar-quoted bodies (as used by functions and DO blocks) do not end a statement.
+ * While scanning, each statement is classified by its kind, whether it has a top-level ORDER BY clause, and whether
+ * it is safe to run.
+ */
+public class SqlLexer {
+
+    /**
+     * The number of top-level words at the start of a statement which are remembered for classification.
+     */
+    private static final int LEADING_WORDS = 4;
+
+    /**
+     * Functions which always give the same result for the same arguments, and change nothing, so that a query which
+     * calls them still gives the same result on the same data.
+     */
+    private static final Set<String> IMMUTABLE_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "abs", "cbrt", "ceil", "ceiling", "degrees", "div", "exp", "floor", "ln", "log", "log10", "mod", "pi",
+            "power", "radians", "round", "sign", "sqrt", "trunc", "width_bucket", "greatest", "least", "coalesce",
+            "nullif", "ascii", "btrim", "chr", "concat", "concat_ws", "initcap", "left", "length", "char_length",
+            "character_length", "octet_length", "lower", "lpad", "ltrim", "md5", "overlay", "position", "repeat",
+            "replace", "reverse", "right", "rpad", "rtrim", "split_part", "strpos", "substr", "substring", "translate",
+            "trim", "upper", "regexp_replace", "regexp_match", "regexp_matches", "count", "sum", "avg", "min", "max",
+            "array_agg", "string_agg", "bool_and", "bool_or", "every", "stddev", "stddev_pop", "stddev_samp",
+            "variance", "var_pop", "var_samp", "corr", "percentile_cont", "percentile_disc", "mode", "row_number",
+            "rank", "dense_rank", "percent_rank", "cume_dist", "ntile", "lag", "lead", "first_value", "last_value",
+            "nth_value", "extract", "date_part", "date_trunc", "make_date", "make_time", "array_length", "cardinality",
+            "unnest", "generate_series"));
+
+    /**
+     * Words which are followed by parentheses without being the names of functions, such as {@code IN (...)}, or the
+     * type modifiers of {@code numeric(10, 2)}.
+     */
+    private static final Set<String> PARENTHESIZED_KEYWORDS = new HashSet<>(Arrays.asList(
+            "select", "from", "where", "and", "or", "not", "in", "exists", "any", "all", "some", "as", "on", "using",
+            "join", "lateral", "values", "over", "filter", "within", "group", "by", "having", "order", "partition",
+            "window", "union", "intersect", "except", "case", "when", "then", "else", "between", "like", "ilike", "is",
+            "distinct", "row", "array", "cast", "with", "recursive", "materialized", "limit", "offset", "fetch", "rows",
+            "range", "groups", "grouping", "sets", "rollup", "cube", "numeric", "decimal", "varchar", "char",
+            "character", "varying", "bit", "timestamp", "time", "interval", "float"));
+
+    private final CharSequence source;
+    private final int length;
+    private int position;
+
+    // The state of the statement currently being scanned.
+    private final int[] wordStarts = new int[LEADING_WORDS];
+    private final int[] wordLengths = new int[LEADING_WORDS];
+    private int wordCount;
+    private int firstWordStart;
+    private int firstWordLength;
+    private int previousWordStart;
+    private int previousWordLength;
+    private int depth;
+    private boolean ordered;
+    private boolean returning;
+    private boolean escapesSchema;
+    private boolean modifiesData;
+    private boolean callsFunction;
+    private StatementKind withKind;
+
+    public SqlLexer(CharSequence source) {
+        this(source, 0, source.length());
+    }
+
+    /**
+     * Constructs a lexer which only scans part of a source.
+     * @param source The source.
+     * @param start The offset at which to start scanning.
+     * @param end The offset at which to stop scanning.
+     */
+    private SqlLexer(CharSequence source, int start, int end) {
+        this.source = source;
+        this.position = start;
+        this.length = end;
+    }
+
+    /**
+     * Splits a whole script into statements.
+     * @param source The script.
+     * @return The statements in the script, in order. Empty statements are left out.
+     */
+    public static List<SqlStatement> split(CharSequence source) {
+        SqlLexer lexer = new SqlLexer(source);
+        List<SqlStatement> statements = new ArrayList<>();
+        for (SqlStatement statement; (statement = lexer.next()) != null; ) {
+            statements.add(statement);
+        }
+        return statements;
+    }
+
+    /**
+     * Counts the statements in a script, without keeping them.
+     * @param source The script.
+     * @return The number of statements in the script. Empty statements are not counted.
+     */
+    public static int count(CharSequence source) {
+        SqlLexer lexer = new SqlLexer(source);
+        int count = 0;
+        while (lexer.next() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Normalizes part of a script, so that statements which only differ in whitespace, comments or the case of
+     * unquoted words get the same text. String literals, quoted identifiers and dollar-quoted bodies are kept as they
+     * are, since their case and spacing matter. Like the server, only ASCII letters are folded to lower case.
+     * @param source The script.
+     * @param start The offset at which the part starts.
+     * @param end The offset at which the part ends.
+     * @return The normalized text.
+     */
+    static String normalize(CharSequence source, int start, int end) {
+        SqlLexer lexer = new SqlLexer(source, start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        boolean separated = false;
+        while (lexer.position < lexer.length) {
+            char c = source.charAt(lexer.position);
+            if (Character.isWhitespace(c)) {
+                lexer.position++;
+                separated = true;
+                continue;
+            }
+            if (c == '-' && lexer.peek(1) == '-') {
+                lexer.skipLineComment();
+                separated = true;
+                continue;
+            }
+            if (c == '/' && lexer.peek(1) == '*') {
+                lexer.skipBlockComment();
+                separated = true;
+                continue;
+            }
+            // Whitespace is only kept where it separates two words, which would otherwise run together.
+            if (separated && sb.length() > 0 && isWordPart(sb.charAt(sb.length() - 1)) && isWordPart(c)) {
+                sb.append(' ');
+            }
+            separated = false;
+
+            int tokenStart = lexer.position;
+            if (c == '\'') {
+                lexer.skipQuoted('\'', false);
+                sb.append(source, tokenStart, lexer.position);
+            } else if (c == '"') {
+                lexer.skipQuoted('"', false);
+                sb.append(source, tokenStart, lexer.position);
+            } else if (c == '$' && lexer.dollarTagLength() > 0) {
+                lexer.skipDollarQuoted(lexer.dollarTagLength());
+                sb.append(source, tokenStart, lexer.position);
+            } else if ((c == 'E' || c == 'e') && lexer.peek(1) == '\'') {
+                lexer.position++;
+                lexer.skipQuoted('\'', true);
+                sb.append('E').append(source, tokenStart + 1, lexer.position);
+            } else if (isIdentifierStart(c)) {
+                do {
+                    sb.append(toLowerAscii(source.charAt(lexer.position)));
+                    lexer.position++;
+                } while (lexer.position < lexer.length && isIdentifierPart(source.charAt(lexer.position)));
+            } else {
+                sb.append(c);
+                lexer.position++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Finds the names which qualify other names in part of a script, such as the schema in {@code schema.table}, or
+     * the table in {@code table.column}. Unquoted names are folded to lower case, as the server does.
+     * @param source The script.
+     * @param start The offset at which the part starts.
+     * @param end The offset at which the part ends.
+     * @return The qualifying names, in the order in which they appear.
+     */
+    static List<String> qualifiers(CharSequence source, int start, int end) {
+        SqlLexer lexer = new SqlLexer(source, start, end);
+        List<String> qualifiers = new ArrayList<>();
+        // The name which was scanned last, if nothing but whitespace and comments came after it yet.
+        String name = null;
+        while (lexer.position < lexer.length) {
+            char c = source.charAt(lexer.position);
+            if (Character.isWhitespace(c)) {
+                lexer.position++;
+                continue;
+            }
+            if (c == '-' && lexer.peek(1) == '-') {
+                lexer.skipLineComment();
+                continue;
+            }
+            if (c == '/' && lexer.peek(1) == '*') {
+                lexer.skipBlockComment();
+                continue;
+            }
+
+            int tokenStart = lexer.position;
+            String token = null;
+            if (c == '.' && name != null) {
+                qualifiers.add(name);
+                lexer.position++;
+            } else if (c == '\'') {
+                lexer.skipQuoted('\'', false);
+            } else if (c == '"') {
+                lexer.skipQuoted('"', false);
+                int tokenEnd = Math.max(tokenStart + 1, lexer.position - 1);
+                token = source.subSequence(tokenStart + 1, tokenEnd).toString().replace("\"\"", "\"");
+            } else if (c == '$' && lexer.dollarTagLength() > 0) {
+                lexer.skipDollarQuoted(lexer.dollarTagLength());
+            } else if ((c == 'E' || c == 'e') && lexer.peek(1) == '\'') {
+                lexer.position++;
+                lexer.skipQuoted('\'', true);
+            } else if (isIdentifierStart(c)) {
+                do {
+                    lexer.position++;
+                } while (lexer.position < lexer.length && isIdentifierPart(source.charAt(lexer.position)));
+                token = foldCase(source.subSequence(tokenStart, lexer.position));
+            } else {
+                lexer.position++;
+            }
+            name = token;
+        }
+        return qualifiers;
+    }
+
+    /**
+     * Folds an unquoted word to lower case the way the server does for UTF-8 text, which only changes ASCII letters.
+     */
+    private static String foldCase(CharSequence word) {
+        StringBuilder sb = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            sb.append(toLowerAscii(word.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Scans the next statement in the script.
+     * @return The next statement, or null if there are no more statements.
+     */
+    public SqlStatement next() {
+        this.resetStatement();
+        int start = -1;
+        int end = -1;
+        while (this.position < this.length) {
+            char c = this.source.charAt(this.position);
+            if (Character.isWhitespace(c)) {
+                this.position++;
+                continue;
+            }
+            if (c == '-' && this.peek(1) == '-') {
+                this.skipLineComment();
+                continue;
+            }
+            if (c == '/' && this.peek(1) == '*') {
+                this.skipBlockComment();
+                continue;
+            }
+            if (c == ';') {
+                this.position++;
+                if (start >= 0) {
+                    return this.buildStatement(start, end);
+                }
+                continue;
+            }
+
+            int tokenStart = this.position;
+            if (start < 0) {
+                start = tokenStart;
+            }
+            if (c == '\'') {
+                this.skipQuoted('\'', false);
+            } else if (c == '"') {
+                this.skipQuoted('"', false);
+                // Any function may be called by its quoted name.
+                if (this.peekSignificant() == '(') {
+                    this.callsFunction = true;
+                }
+            } else if (c == '$' && this.dollarTagLength() > 0) {
+                this.skipDollarQuoted(this.dollarTagLength());
+            } else if ((c == 'E' || c == 'e') && this.peek(1) == '\'') {
+                this.position++;
+                this.skipQuoted('\'', true);
+            } else if (isIdentifierStart(c)) {
+                do {
+                    this.position++;
+                } while (this.position < this.length && isIdentifierPart(this.source.charAt(this.position)));
+                this.handleWord(tokenStart, this.position - tokenStart);
+            } else {
+                if (c == '(') {
+                    this.depth++;
+                } else if (c == ')' && this.depth > 0) {
+                    this.depth--;
+                }
+                this.position++;
+            }
+            end = this.position;
+        }
+        return start >= 0 ? this.buildStatement(start, end) : null;
+    }
+
+    private void resetStatement() {
+        this.wordCount = 0;
+        this.firstWordStart = -1;
+        this.firstWordLength = 0;
+        this.previousWordStart = -1;
+        this.previousWordLength = 0;
+        this.depth = 0;
+        this.ordered = false;
+        this.returning = false;
+        this.escapesSchema = false;
+        this.modifiesData = false;
+        this.callsFunction = false;
+        this.withKind = null;
+    }
+
+    private void handleWord(int start, int length) {
+        if (this.firstWordStart < 0) {
+            this.firstWordStart = start;
+            this.firstWordLength = length;
+        }
+        if (this.isWord(start, length, "SEARCH_PATH") || this.isWord(start, length, "SET_CONFIG")) {
+            this.escapesSchema = true;
+        }
+        // Data may be changed anywhere in a statement, such as in a common table expression or a sequence function.
+        if (this.isWord(start, length, "INSERT") || this.isWord(start, length, "UPDATE")
+                || this.isWord(start, length, "DELETE") || this.isWord(start, length, "MERGE")
+                || this.isWord(start, length, "INTO") || this.isWord(start, length, "NEXTVAL")
+                || this.isWord(start, length, "SETVAL")) {
+            this.modifiesData = true;
+        }
+        // Other functions may give a different result every time, such as random(), or may change data themselves.
+        if (this.peekSignificant() == '(' ? !this.isImmutableCall(start, length)
+                : this.isWord(start, length, "CURRENT_DATE") || this.isWord(start, length, "CURRENT_TIME")
+                || this.isWord(start, length, "CURRENT_TIMESTAMP") || this.isWord(start, length, "LOCALTIME")
+                || this.isWord(start, length, "LOCALTIMESTAMP")) {
+            this.callsFunction = true;
+        }
+        if (this.depth > 0) {
+            return;
+        }
+
+        if (this.wordCount < LEADING_WORDS) {
+            this.wordStarts[this.wordCount] = start;
+            this.wordLengths[this.wordCount] = length;
+        }
+        this.wordCount++;
+
+        if (this.isWord(start, length, "BY") && this.isWord(this.previousWordStart, this.previousWordLength, "ORDER")) {
+            this.ordered = true;
+        } else if (this.isWord(start, length, "RETURNING")) {
+            this.returning = true;
+        }
+        // The kind of a WITH statement is that of the first statement after its (parenthesized) common table
+        // expressions.
+        if (this.withKind == null && this.wordCount > 1) {
+            StatementKind kind = this.kindOfLeadingWord(start, length);
+            if (kind != StatementKind.DDL) {
+                this.withKind = kind;
+            }
+        }
+        this.previousWordStart = start;
+        this.previousWordLength = length;
+    }
+
+    private SqlStatement buildStatement(int start, int end) {
+        StatementKind kind;
+        if (this.isWord(this.firstWordStart, this.firstWordLength, "WITH")) {
+            kind = this.withKind != null ? this.withKind : StatementKind.QUERY;
+        } else {
+            kind = this.kindOfLeadingWord(this.firstWordStart, this.firstWordLength);
+        }
+        if (kind == StatementKind.DML && this.returning) {
+            kind = StatementKind.QUERY;
+        }
+
+        boolean safe = !((this.leadingWordIs(0, "CREATE") || this.leadingWordIs(0, "DROP"))
+                && this.leadingWordIs(1, "DATABASE"));
+
+        boolean escapesSchema = this.escapesSchema;
+        if ((this.leadingWordIs(0, "CREATE") || this.leadingWordIs(0, "DROP") || this.leadingWordIs(0, "ALTER"))
+                && this.leadingWordIs(1, "SCHEMA")) {
+            escapesSchema = true;
+        } else if (this.leadingWordIs(0, "SET") || this.leadingWordIs(0, "RESET")) {
+            int i = this.leadingWordIs(1, "SESSION") || this.leadingWordIs(1, "LOCAL") ? 2 : 1;
+            if (this.leadingWordIs(i, "SCHEMA") || this.leadingWordIs(i, "ROLE")
+                    || (this.leadingWordIs(i, "AUTHORIZATION") && this.leadingWordIs(i - 1, "SESSION"))) {
+                escapesSchema = true;
+            }
+        }
+
+        boolean controlsTransactions = this.leadingWordIs(0, "BEGIN") || this.leadingWordIs(0, "START")
+                || this.leadingWordIs(0, "COMMIT") || this.leadingWordIs(0, "END") || this.leadingWordIs(0, "ROLLBACK")
+                || this.leadingWordIs(0, "ABORT") || this.leadingWordIs(0, "SAVEPOINT")
+                || this.leadingWordIs(0, "RELEASE") || this.leadingWordIs(0, "VACUUM")
+                || (this.leadingWordIs(0, "PREPARE") && this.leadingWordIs(1, "TRANSACTION"))
+                || this.leadingWordIs(2, "CONCURRENTLY") || this.leadingWordIs(3, "CONCURRENTLY");
+
+        boolean readOnly = kind == StatementKind.QUERY && !this.modifiesData && !this.callsFunction
+                && (this.leadingWordIs(0, "SELECT") || this.leadingWordIs(0, "VALUES")
+                || this.leadingWordIs(0, "TABLE") || this.leadingWordIs(0, "WITH"));
+
+        return new SqlStatement(this.source, start, end, kind, this.ordered, safe, escapesSchema, controlsTransactions, readOnly);
+    }
+
+    private StatementKind kindOfLeadingWord(int start, int length) {
+        if (this.isWord(start, length, "SELECT") || this.isWord(start, length, "VALUES")
+                || this.isWord(start, length, "TABLE") || this.isWord(start, length, "SHOW")
+                || this.isWord(start, length, "EXPLAIN")) {
+            return StatementKind.QUERY;
+        }
+        if (this.isWord(start, length, "INSERT") || this.isWord(start, length, "UPDATE")
+                || this.isWord(start, length, "DELETE") || this.isWord(start, length, "MERGE")) {
+            return StatementKind.DML;
+        }
+        return StatementKind.DDL;
+    }
+
+    /**
+     * Checks whether a word which is followed by parentheses is a keyword, or the name of an immutable function.
+     */
+    private boolean isImmutableCall(int start, int length) {
+        String name = foldCase(this.source.subSequence(start, start + length));
+        return PARENTHESIZED_KEYWORDS.contains(name) || IMMUTABLE_FUNCTIONS.contains(name);
+    }
+
+    private boolean leadingWordIs(int index, String keyword) {
+        return index < Math.min(this.wordCount, LEADING_WORDS)
+                && this.isWord(this.wordStarts[index], this.wordLengths[index], keyword);
+    }
+
+    /**
+     * Compares a word in the source with an uppercase keyword, ignoring case, without copying the word.
+     */
+    private boolean isWord(int start, int length, String keyword) {
+        if (start < 0 || length != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toUpperCase(this.source.charAt(start + i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char peek(int offset) {
+        int i = this.position + offset;
+        return i < this.length ? this.source.charAt(i) : '\0';
+    }
+
+    /**
+     * Finds the next character after the current position which is not whitespace or part of a comment, without
+     * moving forward.
+     * @return The character, or '\0' if the end was reached.
+     */
+    private char peekSignificant() {
+        int saved = this.position;
+        char found = '\0';
+        while (this.position < this.length) {
+            char c = this.source.charAt(this.position);
+            if (Character.isWhitespace(c)) {
+                this.position++;
+            } else if (c == '-' && this.peek(1) == '-') {
+                this.skipLineComment();
+            } else if (c == '/' && this.peek(1) == '*') {
+                this.skipBlockComment();
+            } else {
+                found = c;
+                break;
+            }
+        }
+        this.position = saved;
+        return found;
+    }
+
+    private void skipLineComment() {
+        while (this.position < this.length && this.source.charAt(this.position) != '\n') {
+            this.position++;
+        }
+    }
+
+    /**
+     * Skips a block comment, which may contain nested block comments.
+     */
+    private void skipBlockComment() {
+        int nesting = 0;
+        while (this.position < this.length) {
+            char c = this.source.charAt(this.position);
+            if (c == '/' && this.peek(1) == '*') {
+                nesting++;
+                this.position += 2;
+            } else if (c == '*' && this.peek(1) == '/') {
+                nesting--;
+                this.position += 2;
+                if (nesting == 0) {
+                    return;
+                }
+            } else {
+                this.position++;
+            }
+        }
+    }
+
+    /**
+     * Skips a quoted string or identifier, starting at its opening quote. A doubled quote stands for the quote itself.
+     * @param quote The quote character.
+     * @param backslashEscapes Whether backslashes escape the next character, as in E'...' strings.
+     */
+    private void skipQuoted(char quote, boolean backslashEscapes) {
+        this.position++;
+        while (this.position < this.length) {
+            char c = this.source.charAt(this.position);
+            if (backslashEscapes && c == '\\') {
+                this.position += 2;
+            } else if (c == quote) {
+                if (this.peek(1) == quote) {
+                    this.position += 2;
+                } else {
+                    this.position++;
+                    return;
+                }
+            } else {
+                this.position++;
+            }
+        }
+        this.position = this.length;
+    }
+
+    /**
+     * Gets the length of the dollar-quote tag starting at the current position, such as {@code $$} or
+     * {@code $body$}.
+     * @return The length of the tag, including both dollar signs, or 0 if this is not a tag.
+     */
+    private int dollarTagLength() {
+        int i = this.position + 1;
+        if (i < this.length && Character.isDigit(this.source.charAt(i))) {
+            // This is a positional parameter, like $1.
+            return 0;
+        }
+        while (i < this.length) {
+            char c = this.source.charAt(i);
+            if (c == '$') {
+                return i - this.position + 1;
+            }
+            if (!isIdentifierPart(c)) {
+                return 0;
+            }
+            i++;
+        }
+        return 0;
+    }
+
+    /**
+     * Skips a dollar-quoted body, from its opening tag up to and including the same closing tag.
+     */
+    private void skipDollarQuoted(int tagLength) {
+        int tagStart = this.position;
+        this.position += tagLength;
+        while (this.position < this.length) {
+            if (this.source.charAt(this.position) == '$' && this.regionEquals(tagStart, this.position, tagLength)) {
+                this.position += tagLength;
+                return;
+            }
+            this.position++;
+        }
+    }
+
+    private boolean regionEquals(int a, int b, int length) {
+        if (b + length > this.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.source.charAt(a + i) != this.source.charAt(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordPart(char c) {
+        return isIdentifierPart(c) || c == '\'' || c == '"';
+    }
+
+    /**
+     * Like the server, any character outside of ASCII may be part of a name. This also holds for each byte of a
+     * multi-byte character in a {@link MappedScript}, so names are found the same way in both.
+     */
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c >= 0x80;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9') || c == '$';
+    }
+
+}
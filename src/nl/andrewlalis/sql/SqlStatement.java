@@ -0,0 +1,123 @@
+package nl.andrewlalis.sql;
+
+import java.util.List;
+
+/**
+ * A single statement in an SQL script, found by a {@link SqlLexer}. The statement refers to a span of the script
+ * instead of holding a copy of its text.
+ */
+public class SqlStatement {
+
+    private final CharSequence source;
+    private final int start;
+    private final int end;
+    private final StatementKind kind;
+    private final boolean ordered;
+    private final boolean safe;
+    private final boolean escapesSchema;
+    private final boolean controlsTransactions;
+    private final boolean readOnly;
+
+    SqlStatement(CharSequence source, int start, int end, StatementKind kind, boolean ordered, boolean safe,
+                 boolean escapesSchema, boolean controlsTransactions, boolean readOnly) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.kind = kind;
+        this.ordered = ordered;
+        this.safe = safe;
+        this.escapesSchema = escapesSchema;
+        this.controlsTransactions = controlsTransactions;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @return The text of the statement, without its terminating semicolon or any surrounding whitespace and comments.
+     */
+    public String getText() {
+        return this.source.subSequence(this.start, this.end).toString();
+    }
+
+    /**
+     * @return The text of the statement with whitespace, comments and the case of unquoted words normalized, so that
+     * statements which only differ in their formatting have the same normalized text.
+     */
+    public String getNormalizedText() {
+        if (this.source instanceof MappedScript) {
+            // The characters of a mapped script are bytes, so the statement is decoded before it is normalized.
+            String text = this.getText();
+            return SqlLexer.normalize(text, 0, text.length());
+        }
+        return SqlLexer.normalize(this.source, this.start, this.end);
+    }
+
+    /**
+     * @return The names which qualify other names in the statement, such as the schema in {@code schema.table}, with
+     * unquoted names folded to lower case.
+     */
+    public List<String> getQualifiers() {
+        return SqlLexer.qualifiers(this.source, this.start, this.end);
+    }
+
+    /**
+     * @return The offset of the statement's first character in the script.
+     */
+    public int getStart() {
+        return this.start;
+    }
+
+    /**
+     * @return The offset just past the statement's last character in the script.
+     */
+    public int getEnd() {
+        return this.end;
+    }
+
+    public StatementKind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * @return True if the statement has an ORDER BY clause at its top level, so the order of its rows is defined.
+     */
+    public boolean isOrdered() {
+        return this.ordered;
+    }
+
+    /**
+     * @return True if the statement does not create or drop whole databases.
+     */
+    public boolean isSafe() {
+        return this.safe;
+    }
+
+    /**
+     * @return True if the statement could let SQL running in one schema reach outside of it, for example by changing
+     * the search path or the current role.
+     */
+    public boolean escapesSchema() {
+        return this.escapesSchema;
+    }
+
+    /**
+     * @return True if the statement starts or ends a transaction itself, or cannot be run inside a transaction block,
+     * such as VACUUM or CREATE INDEX CONCURRENTLY.
+     */
+    public boolean controlsTransactions() {
+        return this.controlsTransactions;
+    }
+
+    /**
+     * @return True if the statement only reads data, and calls no functions except those which always give the same
+     * result for the same arguments, so that running it again on the same data gives the same result.
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    @Override
+    public String toString() {
+        return this.getText();
+    }
+
+}
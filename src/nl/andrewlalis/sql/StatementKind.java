@@ -0,0 +1,20 @@
+package nl.andrewlalis.sql;
+
+/**
+ * The kinds of SQL statements, which determine how a statement is executed and how its outcome is compared.
+ */
+public enum StatementKind {
+    /**
+     * A statement which returns a result set, such as SELECT, WITH ... SELECT, VALUES, TABLE, or a data manipulation
+     * statement with a RETURNING clause.
+     */
+    QUERY,
+    /**
+     * A statement which changes data and returns only a count of affected rows, such as INSERT, UPDATE or DELETE.
+     */
+    DML,
+    /**
+     * Any other statement, such as one which changes the schema or the session.
+     */
+    DDL
+}
@@ -0,0 +1,76 @@
+package nl.andrewlalis.util;
+
+import nl.andrewlalis.sql.MappedScript;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helps with computing content hashes, which are used to recognize previously seen SQL.
+ */
+public class Hashes {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Computes the SHA-256 hash of some strings, as if they had been concatenated with a separator between them. Each
+     * string is encoded as UTF-8 a small piece at a time, so that hashing a very large script does not copy it. A
+     * mapped script is hashed as the bytes of its file, which gives the same hash as its text held in a string.
+     * @param parts The strings to hash.
+     * @return The lowercase hexadecimal representation of the hash.
+     */
+    public static String sha256Hex(CharSequence... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(8192);
+        for (CharSequence part : parts) {
+            if (part instanceof MappedScript) {
+                digest.update(((MappedScript) part).bytes());
+                digest.update((byte) 0);
+                continue;
+            }
+            CharBuffer chars = CharBuffer.wrap(part);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, true);
+                update(digest, bytes);
+            } while (result.isOverflow());
+            do {
+                result = encoder.flush(bytes);
+                update(digest, bytes);
+            } while (result.isOverflow());
+            digest.update((byte) 0);
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Adds the bytes which have been written to a buffer to a digest, and empties the buffer.
+     */
+    private static void update(MessageDigest digest, ByteBuffer bytes) {
+        bytes.flip();
+        digest.update(bytes);
+        bytes.clear();
+    }
+
+}